@@ -0,0 +1,251 @@
+/*
+ * (C) Copyright Boris Litvin 2014
+ * This file is part of NioServer library.
+ *
+ *  NioServer is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   NioServer is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with NioServer.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.blitvin.nioserver;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * AffinityExecutor is thread pool running all requests of a connection on the same worker 
+ * thread, so state kept in client context and retained message processor stays in cache of 
+ * one core instead of moving between cores with every request. Connections are hashed to
+ * workers, each worker has its own queue. A worker that ran out of own tasks steals from 
+ * queues of other workers, but only from those longer than steal threshold, so affinity is 
+ * given up only when a worker is overloaded. Tasks which don't belong to a connection
+ * are spread between workers in turn.
+ * Requests of a connection that is not multiplexed are executed one at a time anyway, 
+ * so stealing doesn't change their order. Worker threads are started by the first task, 
+ * so executor that is never used doesn't keep JVM alive
+ * @author blitvin
+ *
+ */
+public class AffinityExecutor extends AbstractExecutorService {
+	/**
+	 * default length of worker queue above which other workers steal from it
+	 */
+	public static final int DEFAULT_STEAL_THRESHOLD = 4;
+	
+	private final class Worker implements Runnable {
+		final ConcurrentLinkedDeque<Runnable> queue = new ConcurrentLinkedDeque<>();
+		final AtomicInteger size = new AtomicInteger();
+		final Thread thread;
+		volatile boolean parked = false;
+		
+		Worker(int index) {
+			thread = new Thread(this, "nioserver-affinity-" + index);
+		}
+		
+		void add(Runnable task) {
+			queue.add(task);
+			if (size.incrementAndGet() > stealThreshold)
+				wakeIdleWorker(this);
+			if (parked)
+				LockSupport.unpark(thread);
+		}
+		
+		Runnable poll() {
+			Runnable retVal = queue.poll();
+			if (retVal != null)
+				size.decrementAndGet();
+			return retVal;
+		}
+		
+		boolean remove(Runnable task) {
+			if (!queue.removeLastOccurrence(task))
+				return false;
+			size.decrementAndGet();
+			return true;
+		}
+		
+		// newest tasks are stolen, owner keeps the ones it is about to run
+		Runnable steal() {
+			if (size.get() <= stealThreshold)
+				return null;
+			Runnable retVal = queue.pollLast();
+			if (retVal != null) {
+				size.decrementAndGet();
+				stolen.incrementAndGet();
+			}
+			return retVal;
+		}
+		
+		@Override
+		public void run() {
+			try {
+				while(true) {
+					Runnable task = nextTask();
+					if (task == null) {
+						if (shutdown && size.get() == 0)
+							return;
+						// recheck after announcing park, producer unparks if it sees the flag
+						parked = true;
+						task = nextTask();
+						if (task == null && !shutdown)
+							LockSupport.park(this);
+						parked = false;
+						if (task == null)
+							continue;
+					}
+					try {
+						task.run();
+					} catch (RuntimeException e) {
+						// the same as thread pool, failed task doesn't kill the worker
+					}
+				}
+			} finally {
+				terminated.countDown();
+			}
+		}
+		
+		private Runnable nextTask() {
+			Runnable retVal = poll();
+			if (retVal != null)
+				return retVal;
+			for(Worker victim : workers) {
+				if (victim != this && (retVal = victim.steal()) != null)
+					return retVal;
+			}
+			return null;
+		}
+	}
+	
+	private final Worker[] workers;
+	private final int stealThreshold;
+	private final AtomicInteger nextWorker = new AtomicInteger();
+	private final AtomicInteger stolen = new AtomicInteger();
+	private final AtomicBoolean started = new AtomicBoolean();
+	private final CountDownLatch terminated;
+	private volatile boolean shutdown = false;
+	
+	/**
+	 * creates executor with number of workers equal to number of available processors and
+	 * default steal threshold
+	 */
+	public AffinityExecutor() {
+		this(Runtime.getRuntime().availableProcessors(), DEFAULT_STEAL_THRESHOLD);
+	}
+	
+	/**
+	 * @param numOfWorkers number of worker threads
+	 * @param stealThreshold length of worker queue above which other workers may steal from it
+	 */
+	public AffinityExecutor(int numOfWorkers, int stealThreshold) {
+		if (numOfWorkers < 1)
+			throw new IllegalArgumentException("number of workers should be positive " + numOfWorkers);
+		this.stealThreshold = stealThreshold;
+		workers = new Worker[numOfWorkers];
+		for(int i = 0; i < numOfWorkers; ++i)
+			workers[i] = new Worker(i);
+		terminated = new CountDownLatch(numOfWorkers);
+	}
+	
+	private void start() {
+		if (started.compareAndSet(false, true))
+			for(Worker worker : workers)
+				worker.thread.start();
+	}
+	
+	private Worker workerFor(Runnable task) {
+		if (task instanceof ConnectionTask) {
+			int h = System.identityHashCode(((ConnectionTask) task).getClientContext());
+			h ^= h >>> 16;
+			return workers[(h & Integer.MAX_VALUE) % workers.length];
+		}
+		return workers[(nextWorker.getAndIncrement() & Integer.MAX_VALUE) % workers.length];
+	}
+	
+	private void wakeIdleWorker(Worker overloaded) {
+		for(Worker worker : workers) {
+			if (worker != overloaded && worker.parked) {
+				LockSupport.unpark(worker.thread);
+				return;
+			}
+		}
+	}
+
+	@Override
+	public void execute(Runnable command) {
+		if (shutdown)
+			throw new RejectedExecutionException("executor is shut down");
+		if (!started.get())
+			start();
+		Worker worker = workerFor(command);
+		worker.add(command);
+		// executor shut down meanwhile may have no worker left to run the task, unless
+		// some worker has taken it already
+		if (shutdown && worker.remove(command))
+			throw new RejectedExecutionException("executor is shut down");
+	}
+	
+	/**
+	 * 
+	 * @return number of tasks executed by worker other than one the task was assigned to
+	 */
+	public int getStolenTasks() {
+		return stolen.get();
+	}
+
+	@Override
+	public void shutdown() {
+		shutdown = true;
+		if (started.compareAndSet(false, true)) {
+			// workers were never started, there is nothing to wait for
+			for(int i = 0; i < workers.length; ++i)
+				terminated.countDown();
+			return;
+		}
+		for(Worker worker : workers)
+			LockSupport.unpark(worker.thread);
+	}
+
+	@Override
+	public List<Runnable> shutdownNow() {
+		shutdown();
+		List<Runnable> retVal = new ArrayList<>();
+		for(Worker worker : workers) {
+			Runnable task;
+			while((task = worker.poll()) != null)
+				retVal.add(task);
+		}
+		return retVal;
+	}
+
+	@Override
+	public boolean isShutdown() {
+		return shutdown;
+	}
+
+	@Override
+	public boolean isTerminated() {
+		return terminated.getCount() == 0;
+	}
+
+	@Override
+	public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+		return terminated.await(timeout, unit);
+	}
+}
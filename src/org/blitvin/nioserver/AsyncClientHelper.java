@@ -0,0 +1,263 @@
+/*
+ * (C) Copyright Boris Litvin 2014
+ * This file is part of NioServer library.
+ *
+ *  NioServer is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   NioServer is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with NioServer.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.blitvin.nioserver;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Asynchronous counterpart of {@link ClientHelper}. Requests are sent without waiting for 
+ * replies to previous ones and the result is delivered by CompletableFuture. Exception thrown by
+ * business logic on server completes the future exceptionally with RemoteExecutionException.
+ * With LV protocol requests are pipelined and replies are matched to requests in order, with 
+ * {@link MuxClientProtocol} replies are matched by request id and may arrive in any order.
+ * Network I/O is done by {@link ClientEventLoop} shared by many helpers. The helper is thread
+ * safe
+ * @author blitvin
+ *
+ */
+public class AsyncClientHelper {
+
+	private static final class Call {
+		final int requestId;
+		final ByteBuffer data;
+		final CompletableFuture<byte[]> reply; // null for service messages
+		
+		Call(int requestId, ByteBuffer data, CompletableFuture<byte[]> reply) {
+			this.requestId = requestId;
+			this.data = data;
+			this.reply = reply;
+		}
+	}
+	
+	private final ClientEventLoop loop;
+	private final SocketChannel channel;
+	private final ClientSideProtocol protocol;
+	private final boolean multiplexed;
+	private final AtomicInteger nextRequestId = new AtomicInteger();
+	// calls submitted by client threads and not yet taken by event loop
+	private final ConcurrentLinkedQueue<Call> outgoing = new ConcurrentLinkedQueue<>();
+	private final AtomicBoolean flushScheduled = new AtomicBoolean(false);
+	private volatile IOException failure = null;
+	private volatile boolean closed = false;
+	private final Runnable flushTask = new Runnable() {
+		@Override
+		public void run() {
+			flushOutgoing();
+		}
+	};
+	// state below is accessed by event loop thread only
+	private SelectionKey key;
+	private final ArrayDeque<ByteBuffer> writeQueue = new ArrayDeque<>();
+	private final ArrayDeque<CompletableFuture<byte[]>> awaitingReplies = new ArrayDeque<>();
+	private final HashMap<Integer, CompletableFuture<byte[]>> callsById = new HashMap<>();
+	
+	/**
+	 * opens connection to nioserver and registers it with event loop
+	 * @param hostname host name nioserver runs on
+	 * @param port port of nioserver
+	 * @param loop event loop serving the connection
+	 * @param protocol protocol handling object, if null LV protocol is used
+	 * @throws IOException
+	 */
+	public AsyncClientHelper(String hostname, int port, ClientEventLoop loop, 
+			ClientSideProtocol protocol) throws IOException {
+		this.loop = loop;
+		this.protocol = protocol == null ? new LVClientProtocol() : protocol;
+		multiplexed = this.protocol instanceof MuxClientProtocol;
+		channel = SocketChannel.open(new InetSocketAddress(hostname, port));
+		channel.configureBlocking(false);
+		loop.execute(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					key = AsyncClientHelper.this.loop.register(channel, AsyncClientHelper.this);
+				} catch (IOException e) {
+					fail(e);
+				}
+			}
+		});
+	}
+	
+	/**
+	 * constructor assuming default (LV) protocol
+	 * @param hostname host name nioserver runs on
+	 * @param port port of nioserver
+	 * @param loop event loop serving the connection
+	 * @throws IOException
+	 */
+	public AsyncClientHelper(String hostname, int port, ClientEventLoop loop) throws IOException {
+		this(hostname, port, loop, null);
+	}
+	
+	/**
+	 * sends request without waiting for reply
+	 * @param msg parameter of the request call
+	 * @return future completed with reply of the server, or exceptionally with 
+	 * RemoteExecutionException if business logic threw exception, or with IOException if 
+	 * connection failed
+	 */
+	public CompletableFuture<byte[]> sendRequestAsync(byte[] msg) {
+		CompletableFuture<byte[]> reply = new CompletableFuture<>();
+		if (multiplexed) {
+			int requestId = nextRequestId.incrementAndGet();
+			submit(new Call(requestId, ((MuxClientProtocol) protocol).encodeRequest(requestId, msg), reply));
+		} else
+			submit(new Call(0, protocol.encodeMessage(msg), reply));
+		return reply;
+	}
+	
+	/**
+	 * sends keepalive notification, see {@link ClientHelper#keepAlive()}
+	 */
+	public void keepAlive() {
+		submit(new Call(0, protocol.sendServiceMessage(ClientServerProtocol.KEEPALIVE_NOTIFICATION), null));
+	}
+	
+	/**
+	 * notifies server that connection is no more needed. Server closes connection after 
+	 * replies to requests sent before are delivered
+	 */
+	public void closeConnection() {
+		submit(new Call(0, protocol.sendServiceMessage(ClientServerProtocol.CLOSE_NOTIFICATION), null));
+		closed = true;
+	}
+	
+	private void submit(Call call) {
+		if (closed) {
+			failCall(call, new IOException("connection is closed"));
+			return;
+		}
+		outgoing.add(call);
+		if (failure != null) { // event loop may have failed the queue already
+			if (outgoing.remove(call))
+				failCall(call, failure);
+			return;
+		}
+		if (flushScheduled.compareAndSet(false, true))
+			loop.execute(flushTask);
+	}
+	
+	private static void failCall(Call call, IOException e) {
+		if (call.reply != null)
+			call.reply.completeExceptionally(e);
+	}
+	
+	/*
+	 * takes submitted calls on event loop thread
+	 */
+	private void flushOutgoing() {
+		flushScheduled.set(false);
+		if (failure != null)
+			return;
+		Call call;
+		while((call = outgoing.poll()) != null) {
+			if (call.reply != null) {
+				if (multiplexed)
+					callsById.put(call.requestId, call.reply);
+				else
+					awaitingReplies.add(call.reply);
+			}
+			writeQueue.add(call.data);
+		}
+		try {
+			write();
+		} catch (IOException e) {
+			fail(e);
+		}
+	}
+	
+	void write() throws IOException {
+		ByteBuffer data;
+		while((data = writeQueue.peek()) != null) {
+			channel.write(data);
+			if (data.hasRemaining()) {
+				key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+				return;
+			}
+			writeQueue.poll();
+		}
+		key.interestOps(SelectionKey.OP_READ);
+	}
+	
+	void read(ByteBuffer input) throws IOException {
+		input.clear();
+		if (channel.read(input) == -1)
+			throw new IOException("peer closed connection");
+		input.flip();
+		protocol.addPart(input);
+		while(protocol.hasCompleteMessage()) {
+			CompletableFuture<byte[]> reply = multiplexed ? 
+					callsById.remove(((MuxClientProtocol) protocol).getReplyId()) : awaitingReplies.poll();
+			try {
+				byte[] data = protocol.getReply();
+				if (reply != null)
+					reply.complete(data);
+			} catch (RemoteExecutionException | ClassNotFoundException e) {
+				if (reply != null)
+					reply.completeExceptionally(e);
+			} catch (RuntimeException e) {
+				// reply can't be decoded, the connection is dropped along with the call
+				IOException failure = new IOException(e);
+				if (reply != null)
+					reply.completeExceptionally(failure);
+				throw failure;
+			} finally {
+				protocol.inboundMessageHasBeenConsumed();
+			}
+		}
+	}
+	
+	/*
+	 * closes the connection and completes all calls in progress with the exception, called on
+	 * event loop thread
+	 */
+	void fail(IOException e) {
+		if (failure != null)
+			return;
+		failure = e;
+		if (key != null)
+			key.cancel();
+		try {
+			channel.close();
+		} catch (IOException ex) {
+		}
+		List<CompletableFuture<byte[]>> calls = new ArrayList<>(awaitingReplies);
+		calls.addAll(callsById.values());
+		awaitingReplies.clear();
+		callsById.clear();
+		writeQueue.clear();
+		Call call;
+		while((call = outgoing.poll()) != null)
+			failCall(call, e);
+		for(CompletableFuture<byte[]> reply : calls)
+			reply.completeExceptionally(e);
+	}
+}
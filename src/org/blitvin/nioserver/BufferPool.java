@@ -0,0 +1,224 @@
+/*
+ * (C) Copyright Boris Litvin 2014
+ * This file is part of NioServer library.
+ *
+ *  NioServer is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   NioServer is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with NioServer.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.blitvin.nioserver;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * BufferPool is a pool of direct byte buffers used by NioServer for reading, decoding and
+ * encoding of messages. Direct buffers are passed to socket channel without intermediate copy
+ * JDK does for heap buffers, but they are expensive to allocate, so they are recycled.
+ * Buffers are grouped in size classes of powers of two between minimal and maximal buffer size,
+ * request is served by the smallest class that fits. Requests larger than maximal buffer size are
+ * served by heap buffers that are not pooled. Amount of memory kept in free buffers is limited,
+ * buffers released to full size class are left to garbage collector.
+ * The pool maintains counters allowing detection of leaks i.e. buffers acquired and never released.
+ * The pool is thread safe, buffers are acquired and released both by reactors and worker threads.
+ * Only buffers returned by acquire should be released to the pool, and buffer should not be used
+ * after it is released
+ * @author blitvin
+ *
+ */
+public class BufferPool {
+	/**
+	 * default size of smallest buffer class
+	 */
+	public static final int DEFAULT_MIN_BUFFER_SIZE = 256;
+	/**
+	 * default size of largest buffer class
+	 */
+	public static final int DEFAULT_MAX_BUFFER_SIZE = 1 << 20;
+	/**
+	 * default limit of memory kept in free buffers
+	 */
+	public static final long DEFAULT_MAX_POOLED_BYTES = 64L << 20;
+
+	// guarded by ReentrantLock rather than monitor, as contended monitor pins carrier of 
+	// virtual thread encoding the reply
+	private static class SizeClass {
+		final int size;
+		private final ByteBuffer[] free;
+		private int count = 0;
+		private final ReentrantLock lock = new ReentrantLock();
+
+		SizeClass(int size, int capacity) {
+			this.size = size;
+			free = new ByteBuffer[capacity];
+		}
+
+		ByteBuffer poll() {
+			lock.lock();
+			try {
+				if (count == 0)
+					return null;
+				ByteBuffer retVal = free[--count];
+				free[count] = null;
+				return retVal;
+			} finally {
+				lock.unlock();
+			}
+		}
+
+		boolean offer(ByteBuffer buffer) {
+			lock.lock();
+			try {
+				if (count == free.length)
+					return false;
+				free[count++] = buffer;
+				return true;
+			} finally {
+				lock.unlock();
+			}
+		}
+	}
+
+	private final SizeClass[] classes;
+	private final int minShift;
+	private final LongAdder allocated = new LongAdder();
+	private final LongAdder acquired = new LongAdder();
+	private final LongAdder released = new LongAdder();
+	private final LongAdder discarded = new LongAdder();
+	private final LongAdder unpooled = new LongAdder();
+
+	/**
+	 * creates pool with default settings
+	 */
+	public BufferPool() {
+		this(DEFAULT_MIN_BUFFER_SIZE, DEFAULT_MAX_BUFFER_SIZE, DEFAULT_MAX_POOLED_BYTES);
+	}
+
+	/**
+	 * @param minBufferSize size of smallest buffer class, rounded up to power of two
+	 * @param maxBufferSize size of largest buffer class, rounded up to power of two
+	 * @param maxPooledBytes limit of memory kept in free buffers, divided evenly between size classes
+	 */
+	public BufferPool(int minBufferSize, int maxBufferSize, long maxPooledBytes) {
+		if (minBufferSize <= 0 || maxBufferSize < minBufferSize || maxBufferSize > (1 << 30))
+			throw new IllegalArgumentException("illegal buffer sizes min="+ minBufferSize + " max="+maxBufferSize);
+		minShift = shiftFor(minBufferSize);
+		int maxShift = shiftFor(maxBufferSize);
+		classes = new SizeClass[maxShift - minShift + 1];
+		long perClass = maxPooledBytes / classes.length;
+		for(int i = 0 ; i < classes.length; ++i) {
+			int size = 1 << (minShift + i);
+			classes[i] = new SizeClass(size, (int) Math.min(Integer.MAX_VALUE, Math.max(1, perClass / size)));
+		}
+	}
+
+	// smallest shift such that 1 << shift >= size
+	private static int shiftFor(int size) {
+		return size <= 1 ? 0 : 32 - Integer.numberOfLeadingZeros(size - 1);
+	}
+
+	private SizeClass sizeClass(int size) {
+		int idx = shiftFor(size) - minShift;
+		if (idx < 0)
+			idx = 0;
+		return idx < classes.length ? classes[idx] : null;
+	}
+
+	/**
+	 * returns cleared buffer with capacity at least size. The buffer is direct unless size
+	 * exceeds maximal buffer size of the pool
+	 * @param size required capacity
+	 * @return buffer to use
+	 */
+	public ByteBuffer acquire(int size) {
+		SizeClass sizeClass = sizeClass(size);
+		if (sizeClass == null) {
+			unpooled.increment();
+			return ByteBuffer.allocate(size);
+		}
+		acquired.increment();
+		ByteBuffer retVal = sizeClass.poll();
+		if (retVal == null) {
+			allocated.increment();
+			return ByteBuffer.allocateDirect(sizeClass.size);
+		}
+		retVal.clear();
+		return retVal;
+	}
+
+	/**
+	 * returns buffer to the pool. Heap buffers (those allocated for requests larger than maximal
+	 * buffer size) and null are ignored
+	 * @param buffer buffer obtained by acquire
+	 */
+	public void release(ByteBuffer buffer) {
+		if (buffer == null || !buffer.isDirect())
+			return;
+		SizeClass sizeClass = sizeClass(buffer.capacity());
+		if (sizeClass == null || sizeClass.size != buffer.capacity())
+			return;
+		released.increment();
+		if (!sizeClass.offer(buffer))
+			discarded.increment();
+	}
+
+	/**
+	 *
+	 * @return number of direct buffers allocated by the pool
+	 */
+	public long getAllocated() {
+		return allocated.sum();
+	}
+
+	/**
+	 *
+	 * @return number of pooled buffers handed out by acquire
+	 */
+	public long getAcquired() {
+		return acquired.sum();
+	}
+
+	/**
+	 *
+	 * @return number of buffers returned by release
+	 */
+	public long getReleased() {
+		return released.sum();
+	}
+
+	/**
+	 *
+	 * @return number of released buffers dropped because their size class was full
+	 */
+	public long getDiscarded() {
+		return discarded.sum();
+	}
+
+	/**
+	 *
+	 * @return number of heap buffers allocated for requests exceeding maximal buffer size
+	 */
+	public long getUnpooled() {
+		return unpooled.sum();
+	}
+
+	/**
+	 * number of buffers acquired and not released yet. In steady state this is bounded by number of
+	 * connections and requests in progress, constant growth indicates leak
+	 * @return number of buffers in use
+	 */
+	public long getOutstanding() {
+		return acquired.sum() - released.sum();
+	}
+}
@@ -0,0 +1,378 @@
+/*
+ * (C) Copyright Boris Litvin 2014
+ * This file is part of NioServer library.
+ *
+ *  NioServer is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   NioServer is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with NioServer.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.blitvin.nioserver;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.SocketTimeoutException;
+import java.util.ArrayList;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Thread safe pool of client connections to nioserver. Connections are handed out per call (see 
+ * {@link #execute(Call)}) or per sequence of calls (see {@link #borrow()}), so client threads
+ * share a bounded number of connections and connections are not opened and closed per request.
+ * Waiting for free connection is fair, i.e. connections are handed out in order of requests, and
+ * bounded by borrow timeout. Connection is checked before it is handed out, and connection 
+ * that failed with IOException is closed instead of being returned to the pool.
+ * Background thread closes connections idle for longer than idle timeout, keeping minimal number
+ * of connections open, and sends keepalive notifications on the rest so that server doesn't
+ * expire them. 
+ * Pools for {@link ClientHelper} and {@link LVClientHelper} are created by 
+ * {@link #forClientHelper(String, int, int, int)} and {@link #forLVClientHelper(String, int, int, int)}
+ * @author blitvin
+ *
+ * @param <H> class of connection, e.g. ClientHelper
+ */
+public class ClientConnectionPool<H> {
+	/**
+	 * default time to wait for free connection in milliseconds
+	 */
+	public static final long DEFAULT_BORROW_TIMEOUT = 10000;
+	/**
+	 * default time after which idle connection above minimum is closed, in milliseconds
+	 */
+	public static final long DEFAULT_IDLE_TIMEOUT = 60000;
+	/**
+	 * default interval of keepalive notifications on idle connections, in milliseconds. 
+	 * It is well below default client timeout of the server
+	 */
+	public static final long DEFAULT_KEEPALIVE_INTERVAL = NioServerInitializer.DEFAULT_CLIENT_TIMEOUT / 4;
+	
+	/**
+	 * API for opening, checking and closing connections of particular type
+	 * @param <H> class of connection
+	 */
+	public interface ConnectionFactory<H> {
+		H open() throws IOException;
+		boolean isOpen(H connection);
+		void keepAlive(H connection) throws IOException;
+		void close(H connection);
+	}
+	
+	/**
+	 * remote call performed with pooled connection
+	 * @param <H> class of connection
+	 * @param <R> result of the call
+	 */
+	public interface Call<H, R> {
+		R call(H connection) throws IOException, ClassNotFoundException, RemoteExecutionException;
+	}
+	
+	/**
+	 * connection borrowed from the pool. Closing it returns the connection to the pool
+	 * @param <H> class of connection
+	 */
+	public static class PooledConnection<H> implements AutoCloseable {
+		private final ClientConnectionPool<H> pool;
+		private final Entry<H> entry;
+		private boolean broken = false;
+		private boolean released = false;
+		
+		PooledConnection(ClientConnectionPool<H> pool, Entry<H> entry) {
+			this.pool = pool;
+			this.entry = entry;
+		}
+		
+		public H get() {
+			return entry.connection;
+		}
+		
+		/**
+		 * marks connection as unusable, e.g. after communication error, so it is closed
+		 * instead of being returned to the pool
+		 */
+		public void invalidate() {
+			broken = true;
+		}
+		
+		@Override
+		public void close() {
+			if (!released) {
+				released = true;
+				pool.release(entry, broken);
+			}
+		}
+	}
+	
+	private static final class Entry<H> {
+		final H connection;
+		volatile long lastUsed;
+		volatile long lastKeepAlive;
+		
+		Entry(H connection) {
+			this.connection = connection;
+			lastUsed = lastKeepAlive = System.currentTimeMillis();
+		}
+	}
+	
+	private final ConnectionFactory<H> factory;
+	private final int minConnections;
+	private final Semaphore permits; // one per connection in use, fair
+	// most recently used connections are at the head
+	private final LinkedBlockingDeque<Entry<H>> idle = new LinkedBlockingDeque<>();
+	private final AtomicInteger openConnections = new AtomicInteger();
+	private volatile long borrowTimeout = DEFAULT_BORROW_TIMEOUT;
+	private volatile long idleTimeout = DEFAULT_IDLE_TIMEOUT;
+	private volatile long keepAliveInterval = DEFAULT_KEEPALIVE_INTERVAL;
+	private volatile boolean closed = false;
+	private final Thread maintenance;
+	
+	/**
+	 * creates pool and starts its maintenance thread
+	 * @param factory factory of connections
+	 * @param minConnections number of connections kept open when idle
+	 * @param maxConnections maximal number of connections in use
+	 */
+	public ClientConnectionPool(ConnectionFactory<H> factory, int minConnections, int maxConnections) {
+		if (minConnections < 0 || maxConnections < 1 || minConnections > maxConnections)
+			throw new IllegalArgumentException("illegal pool size min="+ minConnections + " max=" + maxConnections);
+		this.factory = factory;
+		this.minConnections = minConnections;
+		permits = new Semaphore(maxConnections, true);
+		maintenance = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				maintain();
+			}
+		}, "ClientConnectionPool-maintenance");
+		maintenance.setDaemon(true);
+		maintenance.start();
+	}
+	
+	/**
+	 * creates pool of {@link ClientHelper} connections using LV protocol
+	 */
+	public static ClientConnectionPool<ClientHelper> forClientHelper(final String hostname, final int port,
+			int minConnections, int maxConnections) {
+		return new ClientConnectionPool<>(new ConnectionFactory<ClientHelper>() {
+			@Override
+			public ClientHelper open() throws IOException {
+				return new ClientHelper(hostname, port);
+			}
+			@Override
+			public boolean isOpen(ClientHelper connection) {
+				return connection.isOpen();
+			}
+			@Override
+			public void keepAlive(ClientHelper connection) {
+				connection.keepAlive();
+			}
+			@Override
+			public void close(ClientHelper connection) {
+				connection.closeConnection();
+			}
+		}, minConnections, maxConnections);
+	}
+	
+	/**
+	 * creates pool of {@link LVClientHelper} connections
+	 */
+	public static ClientConnectionPool<LVClientHelper> forLVClientHelper(final String hostname, final int port,
+			int minConnections, int maxConnections) {
+		return new ClientConnectionPool<>(new ConnectionFactory<LVClientHelper>() {
+			@Override
+			public LVClientHelper open() throws IOException {
+				return new LVClientHelper(hostname, port);
+			}
+			@Override
+			public boolean isOpen(LVClientHelper connection) {
+				return connection.isOpen();
+			}
+			@Override
+			public void keepAlive(LVClientHelper connection) throws IOException {
+				connection.keepAliveConnection();
+			}
+			@Override
+			public void close(LVClientHelper connection) {
+				try {
+					connection.closeConnection();
+				} catch (IOException e) {
+				}
+			}
+		}, minConnections, maxConnections);
+	}
+	
+	/**
+	 * takes connection from the pool, opening new one if no idle connection is available. 
+	 * Waits for free connection if maximal number of connections is in use
+	 * @return connection to be closed after use
+	 * @throws SocketTimeoutException if no connection is freed during borrow timeout
+	 * @throws IOException if new connection can't be opened
+	 */
+	public PooledConnection<H> borrow() throws IOException {
+		if (closed)
+			throw new IOException("connection pool is closed");
+		try {
+			if (!permits.tryAcquire(borrowTimeout, TimeUnit.MILLISECONDS))
+				throw new SocketTimeoutException("timed out waiting for pooled connection");
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("interrupted while waiting for pooled connection");
+		}
+		try {
+			Entry<H> entry;
+			while((entry = idle.pollFirst()) != null) {
+				if (factory.isOpen(entry.connection))
+					return new PooledConnection<>(this, entry);
+				discard(entry);
+			}
+			entry = new Entry<>(factory.open());
+			openConnections.incrementAndGet();
+			return new PooledConnection<>(this, entry);
+		} catch (IOException | RuntimeException e) {
+			permits.release();
+			throw e;
+		}
+	}
+	
+	/**
+	 * performs call with pooled connection. Connection is returned to the pool unless call 
+	 * fails with IOException
+	 * @param call the call to perform
+	 * @return result of the call
+	 * @throws IOException
+	 * @throws ClassNotFoundException
+	 * @throws RemoteExecutionException
+	 */
+	public <R> R execute(Call<H, R> call) throws IOException, ClassNotFoundException, RemoteExecutionException {
+		try (PooledConnection<H> connection = borrow()) {
+			try {
+				return call.call(connection.get());
+			} catch (IOException | RuntimeException e) {
+				connection.invalidate();
+				throw e;
+			}
+		}
+	}
+	
+	private void release(Entry<H> entry, boolean broken) {
+		if (broken || closed || !factory.isOpen(entry.connection))
+			discard(entry);
+		else {
+			entry.lastUsed = System.currentTimeMillis();
+			idle.offerFirst(entry);
+		}
+		permits.release();
+	}
+	
+	private void discard(Entry<H> entry) {
+		openConnections.decrementAndGet();
+		factory.close(entry.connection);
+	}
+	
+	private void maintain() {
+		while(!closed) {
+			try {
+				Thread.sleep(Math.max(1, Math.min(idleTimeout, keepAliveInterval) / 2));
+			} catch (InterruptedException e) {
+				continue;
+			}
+			long now = System.currentTimeMillis();
+			// oldest first
+			ArrayList<Entry<H>> candidates = new ArrayList<>(idle);
+			for(int i = candidates.size() - 1; i >= 0 ; --i) {
+				Entry<H> entry = candidates.get(i);
+				if (now - entry.lastUsed >= idleTimeout && openConnections.get() > minConnections) {
+					if (idle.removeLastOccurrence(entry))
+						discard(entry);
+				} else if (now - Math.max(entry.lastUsed, entry.lastKeepAlive) >= keepAliveInterval
+						&& permits.tryAcquire()) {
+					// connection is taken out of the pool while keepalive is sent
+					if (idle.removeLastOccurrence(entry)) {
+						try {
+							factory.keepAlive(entry.connection);
+							entry.lastKeepAlive = now;
+							idle.offerLast(entry);
+						} catch (IOException e) {
+							discard(entry);
+						}
+					}
+					permits.release();
+				}
+			}
+			while(!closed && openConnections.get() < minConnections && permits.tryAcquire()) {
+				try {
+					Entry<H> entry = new Entry<>(factory.open());
+					openConnections.incrementAndGet();
+					idle.offerLast(entry);
+				} catch (IOException e) {
+					break; // retry on next round
+				} finally {
+					permits.release();
+				}
+			}
+		}
+	}
+	
+	/**
+	 * closes idle connections and stops maintenance thread, connections in use are closed when
+	 * returned to the pool
+	 */
+	public void close() {
+		closed = true;
+		maintenance.interrupt();
+		Entry<H> entry;
+		while((entry = idle.pollFirst()) != null)
+			discard(entry);
+	}
+	
+	/**
+	 * 
+	 * @return number of connections opened by the pool, both idle and in use
+	 */
+	public int getOpenConnections() {
+		return openConnections.get();
+	}
+	
+	/**
+	 * 
+	 * @return number of idle connections
+	 */
+	public int getIdleConnections() {
+		return idle.size();
+	}
+	
+	/**
+	 * @param borrowTimeout time to wait for free connection in milliseconds
+	 */
+	public void setBorrowTimeout(long borrowTimeout) {
+		this.borrowTimeout = borrowTimeout;
+	}
+	
+	/**
+	 * @param idleTimeout time after which idle connection above minimum is closed, in milliseconds
+	 */
+	public void setIdleTimeout(long idleTimeout) {
+		this.idleTimeout = idleTimeout;
+		maintenance.interrupt(); // apply new interval
+	}
+	
+	/**
+	 * @param keepAliveInterval interval of keepalive notifications sent on idle connections,
+	 * in milliseconds. Should be less than client timeout of the server
+	 */
+	public void setKeepAliveInterval(long keepAliveInterval) {
+		this.keepAliveInterval = keepAliveInterval;
+		maintenance.interrupt();
+	}
+}
@@ -18,6 +18,7 @@
 package org.blitvin.nioserver;
 
 import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 
 
 /**
@@ -26,6 +27,10 @@ import java.nio.ByteBuffer;
  * at each request.
  * ClientContext also allows business logic code to communicate to the framework, e.g. setting reply,
  * retrieving request parameter, notification of closing the connection by server side etc.
+ * If the connection uses multiplexed protocol (see {@link MultiplexedServerProtocol}), its
+ * requests are processed concurrently, so subclass state should be thread safe. Request and
+ * reply are kept per worker thread in this case, and are accessible only from the thread
+ * running processData
  *  
  * @author blitvin
  *
@@ -33,12 +38,29 @@ import java.nio.ByteBuffer;
 public class ClientContext {
 	@SuppressWarnings("rawtypes")
 	MessageProcessor mp;
-	private byte[] request;
-	private byte[] reply;
+	@SuppressWarnings("rawtypes")
+	ServerContext serverContext; // connection state, set by ServerContext
+	/*
+	 * request and reply of a call
+	 */
+	static final class Call {
+		byte[] request;
+		ByteBuffer requestBuffer;
+		byte[] reply;
+		FileRegion replyRegion;
+	}
+	// calls of multiplexed connections in progress on worker threads
+	private static final ThreadLocal<Call> currentCall = new ThreadLocal<>();
+	private final Call call = new Call();
+	boolean multiplexed = false;
 	protected ByteBuffer outboundData = null; // this one should be outside the class,
 											  // but client context is passed by replyQueue
 											  // so in order for worker thread to encode
 											  // reply need storage for encoded one...
+	// large reply written after outboundData by gathering write, it is not pooled
+	ByteBuffer outboundBody = null;
+	// file region sent after outboundData, closed when sent or dropped
+	FileRegion outboundRegion = null;
 	
 	
 	private boolean retainMP;
@@ -64,12 +86,59 @@ public class ClientContext {
 		mp = null;
 	}
 	
+	/*
+	 * worker thread processing request of multiplexed connection starts the call before 
+	 * processData and ends it afterwards
+	 */
+	static void beginCall() {
+		currentCall.set(new Call());
+	}
+	
+	static void endCall() {
+		closeRegion(currentCall.get());
+		currentCall.remove();
+	}
+	
+	private static void closeRegion(Call c) {
+		if (c.replyRegion != null) {
+			c.replyRegion.close(); // region was set, but is not sent
+			c.replyRegion = null;
+		}
+	}
+	
+	private Call call() {
+		return multiplexed ? currentCall.get() : call;
+	}
+	
 	void setRequest(byte[] request){
-		this.request = request;
+		Call c = call();
+		c.request = request;
+		c.requestBuffer = null;
+	}
+	
+	void setRequestBuffer(ByteBuffer requestBuffer){
+		Call c = call();
+		if (requestBuffer != null && requestBuffer.hasArray() && requestBuffer.arrayOffset() == 0
+				&& requestBuffer.position() == 0 
+				&& requestBuffer.remaining() == requestBuffer.array().length) {
+			// wrapped byte array, no need to copy it
+			c.request = requestBuffer.array();
+			c.requestBuffer = null;
+		} else {
+			c.requestBuffer = requestBuffer == null ? null : requestBuffer.slice().asReadOnlyBuffer();
+			c.request = null;
+		}
 	}
 	
 	byte[] getReply(){
-		return reply;
+		return call().reply;
+	}
+	
+	FileRegion takeReplyRegion(){
+		Call c = call();
+		FileRegion retVal = c.replyRegion;
+		c.replyRegion = null;
+		return retVal;
 	}
 	
 	/**
@@ -80,7 +149,29 @@ public class ClientContext {
 	 * @return byte array sent by client in the request
 	 */
 	public byte[] getRequest(){
-		return request;
+		Call c = call();
+		if (c.request == null && c.requestBuffer != null) {
+			c.request = new byte[c.requestBuffer.capacity()];
+			ByteBuffer src = c.requestBuffer.duplicate();
+			src.clear();
+			src.get(c.request);
+		}
+		return c.request;
+	}
+	
+	/**
+	 * Alternative to getRequest that avoids copying of the request if server is configured for
+	 * zero copy decoding, in this case returned buffer is read-only view of the data received 
+	 * from the network. The buffer is valid only during processData call and must not be 
+	 * retained by business logic
+	 * @return read-only buffer with request sent by client
+	 * @see NioServerInitializer#setZeroCopyDecoding(boolean)
+	 */
+	public ByteBuffer getRequestBuffer(){
+		Call c = call();
+		if (c.requestBuffer == null && c.request != null)
+			c.requestBuffer = ByteBuffer.wrap(c.request).asReadOnlyBuffer();
+		return c.requestBuffer;
 	}
 	
 	/**
@@ -91,7 +182,29 @@ public class ClientContext {
 	 * @see ObjectEncoderDecoder
 	 */
 	public void setReply(byte[] replyBytes){
-		reply = replyBytes;
+		Call c = call();
+		closeRegion(c);
+		c.reply = replyBytes;
+	}
+	
+	/**
+	 * Alternative to setReply(byte[]) for replies served from files. The region of the file is 
+	 * sent to client by FileChannel.transferTo right after the header of the reply, so the 
+	 * content doesn't pass through java heap. Client gets the content as if it was set by 
+	 * setReply(byte[]). The framework closes the channel once the reply is sent or dropped,
+	 * so business logic should not use it afterwards. If the protocol can't send file regions, 
+	 * the region is read into byte array
+	 * @param file channel of the file open for reading
+	 * @param position position of the region in the file
+	 * @param length length of the region, at most Integer.MAX_VALUE - 8
+	 */
+	public void setReply(FileChannel file, long position, long length){
+		if (position < 0 || length < 0 || length > Integer.MAX_VALUE - 8)
+			throw new IllegalArgumentException("illegal file region position="+ position + " length="+ length);
+		Call c = call();
+		closeRegion(c);
+		c.reply = null;
+		c.replyRegion = new FileRegion(file, position, (int) length);
 	}
 	
 	void setOutboundData(ByteBuffer outboundData){
@@ -131,7 +244,8 @@ public class ClientContext {
 	 * Normally all the state is stored in subclass of ClientContext and message processor class 
 	 * should be stateless, but if for some reason 
 	 * developer wishes to work with the same message processor for processing requests of a client
-	 * this method allows to do this
+	 * this method allows to do this. Retention is not supported for multiplexed connections, since
+	 * their requests are processed concurrently
 	 * @param retain if true  message processor should be retained 
 	 */
 	public void requestMessageProcessorRetention(boolean retain){
@@ -0,0 +1,125 @@
+/*
+ * (C) Copyright Boris Litvin 2014
+ * This file is part of NioServer library.
+ *
+ *  NioServer is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   NioServer is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with NioServer.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.blitvin.nioserver;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.nio.channels.spi.SelectorProvider;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * ClientEventLoop is a single selector thread serving connections of many 
+ * {@link AsyncClientHelper} objects, so client doesn't need a thread or selector per connection.
+ * Replies are completed on the event loop thread, so callbacks attached to returned futures should 
+ * be short, or use async variants of CompletableFuture methods
+ * @author blitvin
+ *
+ */
+public class ClientEventLoop implements Runnable {
+	private final Selector selector;
+	private final ConcurrentLinkedQueue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+	private final ByteBuffer readBuffer;
+	private volatile boolean shutdownRequested = false;
+	
+	private ClientEventLoop() throws IOException {
+		readBuffer = ByteBuffer.allocateDirect(Integer.getInteger(NioServerInitializer.BUFFER_SIZE_STRING, 
+				NioServerInitializer.DEFAULT_BUFFER_SIZE));
+		selector = SelectorProvider.provider().openSelector();
+	}
+	
+	/**
+	 * creates event loop and starts its daemon thread
+	 * @return running event loop
+	 * @throws IOException if selector can't be opened
+	 */
+	public static ClientEventLoop open() throws IOException {
+		ClientEventLoop loop = new ClientEventLoop();
+		Thread thread = new Thread(loop, "ClientEventLoop");
+		thread.setDaemon(true);
+		thread.start();
+		return loop;
+	}
+	
+	/**
+	 * runs task on event loop thread
+	 */
+	void execute(Runnable task) {
+		tasks.add(task);
+		selector.wakeup();
+	}
+	
+	/**
+	 * registers channel of the helper, called on event loop thread
+	 */
+	SelectionKey register(SocketChannel channel, AsyncClientHelper helper) throws IOException {
+		return channel.register(selector, SelectionKey.OP_READ, helper);
+	}
+	
+	/**
+	 * stops the event loop, calls in progress are completed with IOException
+	 */
+	public void shutdown() {
+		shutdownRequested = true;
+		selector.wakeup();
+	}
+	
+	@Override
+	public void run() {
+		IOException failure = new IOException("event loop is shut down");
+		while(!shutdownRequested) {
+			try {
+				selector.select();
+			} catch (IOException e) {
+				failure = e; // selector is unusable, calls of all connections fail
+				break;
+			}
+			Runnable task;
+			while((task = tasks.poll()) != null)
+				task.run();
+			Iterator<SelectionKey> selectedKeys = selector.selectedKeys().iterator();
+			while(selectedKeys.hasNext()) {
+				SelectionKey key = selectedKeys.next();
+				selectedKeys.remove();
+				AsyncClientHelper helper = (AsyncClientHelper) key.attachment();
+				try {
+					if (key.isValid() && key.isReadable())
+						helper.read(readBuffer);
+					if (key.isValid() && key.isWritable())
+						helper.write();
+				} catch (IOException e) {
+					helper.fail(e);
+				} catch (RuntimeException e) {
+					// the connection is dropped, other connections are served on
+					helper.fail(new IOException(e));
+				}
+			}
+		}
+		for(SelectionKey key : new ArrayList<>(selector.keys()))
+			((AsyncClientHelper) key.attachment()).fail(failure);
+		try {
+			selector.close();
+		} catch (IOException e) {
+		}
+	}
+}
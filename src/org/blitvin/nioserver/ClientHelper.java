@@ -19,18 +19,27 @@
 package org.blitvin.nioserver;
 
 import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.net.InetSocketAddress;
 import java.nio.ByteBuffer;
 import java.nio.channels.SelectionKey;
 import java.nio.channels.Selector;
 import java.nio.channels.SocketChannel;
 import java.nio.channels.spi.SelectorProvider;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * This helper class provided for use on client. It provide means to remotely invoke service
  * on NioServer with provided parameters. The calls are syncroneos, i.e. sendRequest doesn't
  * return until reply is received. Technical details like keepalive notifications, 
  * remote exceptions etc. are handled by the class 
+ * If the helper is created with {@link MuxClientProtocol}, it works in multiplexed mode: 
+ * sendRequest can be called by many threads concurrently, requests are sent over the same
+ * connection and replies are matched to requests by id, so slow request doesn't delay others.
+ * In this mode the channel is blocking and replies are read by dedicated daemon thread
  * 
  * @author blitvin
  *
@@ -40,6 +49,12 @@ public class ClientHelper {
 	private SocketChannel channel;
 	private final ByteBuffer input ;
 	private Selector selector;
+	// multiplexed mode
+	private final boolean multiplexed;
+	private final Object writeLock = new Object();
+	private final AtomicInteger nextRequestId = new AtomicInteger();
+	private final ConcurrentHashMap<Integer, CompletableFuture<byte[]>> pendingCalls = new ConcurrentHashMap<>();
+	private volatile IOException failure = null;
 	
 	/**
 	 * Constructor receiving socketchannel already connected to the server, and protocol handler
@@ -50,17 +65,30 @@ public class ClientHelper {
 	 */
 	public ClientHelper(SocketChannel channel, ClientSideProtocol protocol) throws IOException{
 		this.channel  = channel;
-		this.channel.configureBlocking(false);
 		if (protocol == null) 
 			this.protocol  = new LVClientProtocol();
 		else
 			this.protocol = protocol;
+		multiplexed = this.protocol instanceof MuxClientProtocol;
 		
 		Integer bufs = Integer.getInteger(System.getProperty(NioServerInitializer.BUFFER_SIZE_STRING));
 		int bufferSize = (bufs != null)?bufs.intValue():NioServerInitializer.DEFAULT_BUFFER_SIZE;
 		input = ByteBuffer.allocate(bufferSize);
-		selector = SelectorProvider.provider().openSelector();
-		this.channel.register(this.selector, SelectionKey.OP_READ);
+		if (multiplexed) {
+			this.channel.configureBlocking(true);
+			Thread reader = new Thread(new Runnable() {
+				@Override
+				public void run() {
+					readReplies();
+				}
+			}, "ClientHelper-reader-" + channel.getLocalAddress());
+			reader.setDaemon(true);
+			reader.start();
+		} else {
+			this.channel.configureBlocking(false);
+			selector = SelectorProvider.provider().openSelector();
+			this.channel.register(this.selector, SelectionKey.OP_READ);
+		}
 	}
 	
 	/**
@@ -91,9 +119,10 @@ public class ClientHelper {
 	 */
 	public void closeConnection(){
 		try {
-			channel.write(protocol.sendServiceMessage(ClientServerProtocol.CLOSE_NOTIFICATION));
+			write(protocol.sendServiceMessage(ClientServerProtocol.CLOSE_NOTIFICATION));
 			channel.close();
-			channel.keyFor(selector).cancel();
+			if (selector != null)
+				channel.keyFor(selector).cancel();
 			channel = null;
 			selector = null;
 		} catch (IOException e) {
@@ -110,10 +139,33 @@ public class ClientHelper {
 			} catch (IOException e) {
 			
 			}
-			channel.keyFor(selector).cancel();
+			if (selector != null)
+				channel.keyFor(selector).cancel();
 		}
 			
 	}
+	/**
+	 * health check of the connection. Idle connection is not expected to receive anything, so 
+	 * readable channel means server closed the connection. Should not be called concurrently with
+	 * sendRequest
+	 * @return true if connection can be used for requests
+	 */
+	public boolean isOpen(){
+		SocketChannel channel = this.channel;
+		if (channel == null || !channel.isOpen() || failure != null)
+			return false;
+		if (selector != null) {
+			try {
+				if (selector.selectNow() > 0) {
+					selector.selectedKeys().clear();
+					return false;
+				}
+			} catch (IOException e) {
+				return false;
+			}
+		}
+		return true;
+	}
 	/**
 	 * send keepalive ping. This notifies server that connection is still active even if no
 	 * data passes for a timeout. In absence of data passage and keepalive notifications
@@ -122,13 +174,25 @@ public class ClientHelper {
 	 */
 	public void keepAlive(){
 		try {
-			channel.write(protocol.sendServiceMessage(ClientServerProtocol.KEEPALIVE_NOTIFICATION));
+			write(protocol.sendServiceMessage(ClientServerProtocol.KEEPALIVE_NOTIFICATION));
 		} catch (IOException e) {
 			// TBD what if transmission fails?
 		
 		}
 	}
 	
+	/**
+	 * sets processing deadline of subsequent requests sent over the connection, overriding 
+	 * server default, see {@link LVClientHelper#setRequestTimeout(int)}
+	 * @param timeout deadline in msecs, 0 restores server default
+	 * @throws IOException
+	 */
+	public void setRequestTimeout(int timeout) throws IOException {
+		if (!(protocol instanceof LVClientProtocol))
+			throw new UnsupportedOperationException("protocol doesn't support request timeout notification");
+		write(LVClientProtocol.encodeRequestTimeout(timeout));
+	}
+	
 	/**
 	 * this method sends request and retrieves responce from the server. The method handles 
 	 * remote exceptions i.e. if business logic code throws exception, the method throws 
@@ -142,7 +206,9 @@ public class ClientHelper {
 	 * @throws RemoteExecutionException - thrown if business logic code on server throws exception
 	 */
 	public byte[] sendRequest(byte[] msg) throws IOException, ClassNotFoundException, RemoteExecutionException{
-		channel.write(protocol.encodeMessage(msg));
+		if (multiplexed)
+			return sendMultiplexedRequest(msg);
+		write(protocol.encodeMessage(msg));
 		
 		
 		do {
@@ -156,9 +222,79 @@ public class ClientHelper {
 	   	  protocol.addPart(input);
 		}
 		while(!protocol.hasCompleteMessage());
-		byte[] retVal = protocol.getReply();
-		protocol.inboundMessageHasBeenConsumed();
-		return retVal;
+		try {
+			return protocol.getReply();
+		}
+		finally {
+			protocol.inboundMessageHasBeenConsumed();
+		}
 		
 	}
+	
+	private void write(ByteBuffer data) throws IOException {
+		synchronized (writeLock) {
+			while(data.hasRemaining())
+				channel.write(data);
+		}
+	}
+	
+	private byte[] sendMultiplexedRequest(byte[] msg) throws IOException, ClassNotFoundException, RemoteExecutionException {
+		int requestId = nextRequestId.incrementAndGet();
+		CompletableFuture<byte[]> reply = new CompletableFuture<>();
+		pendingCalls.put(requestId, reply);
+		try {
+			if (failure != null) // reader is gone, nobody is going to complete the call
+				throw failure;
+			write(((MuxClientProtocol) protocol).encodeRequest(requestId, msg));
+			return reply.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("interrupted while waiting for reply");
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			if (cause instanceof RemoteExecutionException)
+				throw (RemoteExecutionException) cause;
+			if (cause instanceof ClassNotFoundException)
+				throw (ClassNotFoundException) cause;
+			if (cause instanceof IOException)
+				throw (IOException) cause;
+			throw new IOException(cause);
+		} finally {
+			pendingCalls.remove(requestId);
+		}
+	}
+	
+	/*
+	 * reader thread of multiplexed mode, completes calls as replies arrive
+	 */
+	private void readReplies() {
+		MuxClientProtocol mux = (MuxClientProtocol) protocol;
+		SocketChannel channel = this.channel; // field is cleared by closeConnection
+		try {
+			while(true) {
+				input.clear();
+				if (channel.read(input) == -1)
+					throw new IOException("peer closed connection");
+				input.flip();
+				mux.addPart(input);
+				while(mux.hasCompleteMessage()) {
+					CompletableFuture<byte[]> call = pendingCalls.get(mux.getReplyId());
+					try {
+						byte[] reply = mux.getReply();
+						if (call != null)
+							call.complete(reply);
+					} catch (RemoteExecutionException | ClassNotFoundException e) {
+						if (call != null)
+							call.completeExceptionally(e);
+					} finally {
+						mux.inboundMessageHasBeenConsumed();
+					}
+				}
+			}
+		} catch (IOException e) {
+			failure = e;
+			for(CompletableFuture<byte[]> call : pendingCalls.values())
+				call.completeExceptionally(e);
+		}
+	}
 }
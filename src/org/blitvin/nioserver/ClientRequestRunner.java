@@ -18,49 +18,100 @@
 
 package org.blitvin.nioserver;
 
-import java.nio.channels.Selector;
-import java.util.concurrent.LinkedBlockingQueue;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
 /**
  *  ClientRequestRunner is a wrapper that ensures proper execution of MessageProcessor and
- *  translation of results (including reply, empty response, exception etc.) back to main 
- *  NioServer thread.Instances of ClientRequestRunner are supplied to a thread pool to run
+ *  translation of results (including reply, empty response, exception etc.) back to the reactor
+ *  thread serving the connection. Instances of ClientRequestRunner are supplied to a thread pool to run.
+ *  Hand-off of the reply takes no monitors, so the runner doesn't pin carrier thread when executed
+ *  by virtual thread
  * 
  */
-class ClientRequestRunner<CC extends ClientContext> implements Runnable {
+class ClientRequestRunner<CC extends ClientContext> extends TimedTask {
 
-	Selector selector;
+	Reactor<CC> reactor;
 	CC context; 
-	LinkedBlockingQueue<CC> replyQueue;
 	ServerSideProtocol protocol;
+	ByteBuffer request;
+	long dispatchTime; // for measurement of queueing delay, 0 if not measured
+	ByteBuffer reply; // encoded reply of request that timed out, released by reactor
 	
-	public ClientRequestRunner(Selector selector, CC context, 
-							LinkedBlockingQueue<CC> replyQueue,
-							ServerSideProtocol protocol){
-		this.selector = selector;
+	public ClientRequestRunner(Reactor<CC> reactor, CC context, 
+							ServerSideProtocol protocol, ByteBuffer request, long dispatchTime){
+		this.reactor = reactor;
 		this.context = context;
-		this.replyQueue = replyQueue;
 		this.protocol = protocol;
-		
+		this.request = request;
+		this.dispatchTime = dispatchTime;
 	}
-	@SuppressWarnings("unchecked")
+	@Override
+	public ClientContext getClientContext() {
+		return context;
+	}
+	
 	@Override
 	public void run() {
+		if (dispatchTime != 0)
+			reactor.requestStarted(dispatchTime);
+		boolean completed = false;
+		if (start()) {
+			ByteBuffer encoded = process(context, protocol, request);
+			completed = complete();
+			if (completed)
+				context.setOutboundData(encoded);
+			else
+				reply = encoded; // client has got timeout reply, connection is being closed
+		}
+		if (completed && reactor.isWriteFromWorker()) {
+			try {
+				// reactor doesn't touch the channel until it gets the reply, 
+				// it also completes partial write and handles errors
+				Reactor.write(context.serverContext.channel, context.outboundData, context.outboundBody, 
+						context.outboundRegion, new ByteBuffer[2]);
+			} catch (IOException e) {
+			}
+		}
+		reactor.replyReady(context);
+	}
+	
+	/**
+	 * executes message processor of the context and encodes the reply. Reply long enough for 
+	 * gathering write is not copied, it is left in outboundBody of the context and only its
+	 * header is encoded. Same goes for file region reply, which is left in outboundRegion.
+	 * Called by worker thread, or by reactor thread for {@link NonBlocking} 
+	 * processors
+	 * @return encoded reply or its header
+	 */
+	@SuppressWarnings("unchecked")
+	static ByteBuffer process(ClientContext context, ServerSideProtocol protocol, ByteBuffer request) {
 		try {
-			context.setRequest(protocol.getRequest());
+			// request is detached from the protocol, reactor goes on decoding pipelined requests
+			context.setRequestBuffer(request);
 			context.mp.processData(context);
-			context.setOutboundData(protocol.encodeMessage(context.getReply()));
+			FileRegion region = context.takeReplyRegion();
+			if (region != null) {
+				ByteBuffer header = protocol.encodeRegionHeader(region.length());
+				if (header == null)
+					return protocol.encodeMessage(region.read());
+				context.outboundRegion = region;
+				return header;
+			}
+			byte[] reply = context.getReply();
+			ByteBuffer header = protocol.encodeHeader(reply);
+			if (header == null)
+				return protocol.encodeMessage(reply);
+			context.outboundBody = ByteBuffer.wrap(reply);
+			return header;
 		}
 		catch (Exception e){
-			context.setOutboundData(protocol.putExceptionReply(e));
+			return protocol.putExceptionReply(e);
 		}
 		finally {
-			protocol.inboundMessageHasBeenConsumed();
 			context.setReply(null);
 			context.setRequest(null);
 		}
-		
-		replyQueue.add(context);
-		selector.wakeup();
 	}
 
 }
@@ -23,6 +23,11 @@ import java.nio.ByteBuffer;
 public interface ClientServerProtocol {
 	public static final int CLOSE_NOTIFICATION = -1;
 	public static final int KEEPALIVE_NOTIFICATION = -2;
+	/**
+	 * sets processing deadline of subsequent requests of the connection, the code is followed
+	 * by int value of the deadline in msecs, 0 restores server default
+	 */
+	public static final int REQUEST_TIMEOUT_NOTIFICATION = -3;
 	
 	boolean addPart(ByteBuffer input);
 	boolean hasCompleteMessage();
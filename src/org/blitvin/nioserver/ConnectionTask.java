@@ -0,0 +1,33 @@
+/*
+ * (C) Copyright Boris Litvin 2014
+ * This file is part of NioServer library.
+ *
+ *  NioServer is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   NioServer is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with NioServer.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.blitvin.nioserver;
+
+/**
+ * Task executing request of particular connection. Lets {@link AffinityExecutor} run all
+ * requests of the connection on the same worker thread
+ * @author blitvin
+ *
+ */
+interface ConnectionTask extends Runnable {
+	/**
+	 * 
+	 * @return client context of the connection the request belongs to
+	 */
+	ClientContext getClientContext();
+}
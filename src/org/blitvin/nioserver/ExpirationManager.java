@@ -60,4 +60,13 @@ public interface ExpirationManager<V> {
 	 * @return list of outdated items
 	 */
 	Collection<V> getExpired();
+	/**
+	 * returns time the caller may wait before calling getExpired without delaying eviction of
+	 * items, NioServer uses it as select timeout so idle connections are closed even when there
+	 * is no other activity
+	 * @return delay in msecs, 0 means there is no pending expiration and the caller can wait indefinitely
+	 */
+	default long getNextExpirationDelay() {
+		return 0;
+	}
 }
@@ -0,0 +1,102 @@
+/*
+ * (C) Copyright Boris Litvin 2014
+ * This file is part of NioServer library.
+ *
+ *  NioServer is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   NioServer is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with NioServer.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package org.blitvin.nioserver;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * Region of a file sent as value of reply, see {@link ClientContext#setReply(FileChannel, long, long)}.
+ * The region is transferred to the socket by FileChannel.transferTo, which lets the kernel send
+ * the data without copying it to user space. The file channel is closed once the region is sent,
+ * or when the reply is dropped
+ * @author blitvin
+ *
+ */
+class FileRegion {
+	private final FileChannel file;
+	private final int length;
+	private long position;
+	private long remaining;
+	
+	FileRegion(FileChannel file, long position, int length) {
+		this.file = file;
+		this.length = length;
+		this.position = position;
+		this.remaining = length;
+	}
+	
+	int length() {
+		return length;
+	}
+	
+	boolean isSent() {
+		return remaining == 0;
+	}
+	
+	/**
+	 * transfers as much of the region as target accepts without blocking
+	 * @param target channel to send the region to
+	 * @return true if the region is sent completely
+	 * @throws IOException if the file is shorter than the region, or transfer failed
+	 */
+	boolean transferTo(WritableByteChannel target) throws IOException {
+		while(remaining > 0) {
+			long transferred = file.transferTo(position, remaining, target);
+			if (transferred <= 0) {
+				if (position >= file.size())
+					throw new EOFException("file is shorter than reply region");
+				return false; // socket buffer is full
+			}
+			position += transferred;
+			remaining -= transferred;
+		}
+		return true;
+	}
+	
+	/**
+	 * reads the region into array, for protocols that can't send the region directly.
+	 * The file is closed afterwards
+	 * @return content of the region
+	 * @throws IOException
+	 */
+	byte[] read() throws IOException {
+		try {
+			ByteBuffer data = ByteBuffer.allocate(length);
+			while(data.hasRemaining())
+				if (file.read(data, position + data.position()) < 0)
+					throw new EOFException("file is shorter than reply region");
+			return data.array();
+		} finally {
+			close();
+		}
+	}
+	
+	void close() {
+		try {
+			file.close();
+		} catch (IOException e) {
+			// nothing to do about it, the region is not needed anymore
+		}
+	}
+}
@@ -21,7 +21,7 @@ package org.blitvin.nioserver;
 import java.util.Collection;
 import java.util.HashSet;
 
-/* obsoleted class - NioServer uses SimpleExpirationManager */
+/* obsoleted class - NioServer uses TimingWheelExpirationManager */
 public class InThreadExpirationManager<V> implements ExpirationManager<V> {
 
 	
@@ -102,6 +102,15 @@ public class LVClientHelper {
 			
 		}
 	}
+	/**
+	 * 
+	 * @return true if underlying socket is open. Connection closed by server is detected by the 
+	 * next request only
+	 */
+	public boolean isOpen() {
+		return socket != null && !socket.isClosed();
+	}
+	
 	/**
 	 * the method sends keep alive ping to server notifying it connection is active
 	 * see also ExpirationManager. NioServer have expiration connection feature, so that 
@@ -117,6 +126,18 @@ public class LVClientHelper {
 			os.write(encodeServiceMessage(ClientServerProtocol.KEEPALIVE_NOTIFICATION));
 	}
 	
+	/**
+	 * sets processing deadline of subsequent requests sent over the connection, overriding 
+	 * server default. Request that is not processed before its deadline fails with 
+	 * {@link RequestTimeoutException}, and server closes the connection after the reply
+	 * @param timeout deadline in msecs, 0 restores server default
+	 * @throws IOException
+	 */
+	public void setRequestTimeout(int timeout) throws IOException {
+		if (socket != null)
+			os.write(LVClientProtocol.encodeRequestTimeout(timeout).array());
+	}
+	
 	/**
 	 * This method for sending request with byte array. The reply is also byte array. Raw data is
 	 * passed both ways. Business logic and client are responsible for interpretation of data. 
@@ -134,8 +155,11 @@ public class LVClientHelper {
 		if (len == -1) // peer closed connection
 			return null;
 		
-		if (len < 0)
-			decodeObject(message, len); // throws exception
+		if (len < 0) {
+			byte[] exception = new byte[-len];
+			readBytes(exception, exception.length);
+			decodeObject(exception, len); // throws exception
+		}
 		
 		byte[] retVal = new byte[len];
 		readBytes(retVal,len);
@@ -256,7 +280,7 @@ public class LVClientHelper {
 		  in = new ObjectInputStream(bis);
 		  retVal = in.readObject();
 		  if (dataLen <0) // exception
-			  throw new RemoteExecutionException((Exception)retVal);
+			  throw RemoteExecutionException.fromRemote((Exception)retVal);
 		  return retVal;
 		} finally {
 		  try {
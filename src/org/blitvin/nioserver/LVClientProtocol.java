@@ -23,6 +23,7 @@ import java.io.IOException;
 import java.io.ObjectInput;
 import java.io.ObjectInputStream;
 import java.nio.ByteBuffer;
+import java.util.Arrays;
 /**
  * Default implementation of client protocol
  * @author blitvin
@@ -40,6 +41,19 @@ public class LVClientProtocol extends LVProtocol implements ClientSideProtocol {
 		return outboundData;
 	}
 
+	/**
+	 * encodes notification setting processing deadline of subsequent requests
+	 * @param timeout deadline in msecs, 0 restores server default
+	 * @return encoded notification
+	 */
+	public static ByteBuffer encodeRequestTimeout(int timeout) {
+		ByteBuffer outboundData = ByteBuffer.allocate(2 * HEADER_LENGTH);
+		outboundData.putInt(REQUEST_TIMEOUT_NOTIFICATION);
+		outboundData.putInt(timeout);
+		outboundData.flip();
+		return outboundData;
+	}
+
 	@Override
 	protected int handleNegativeLen(int totalLen) {
 		if (totalLen < 0 ) {
@@ -50,14 +64,22 @@ public class LVClientProtocol extends LVProtocol implements ClientSideProtocol {
 	}
 	@Override
 	public byte[] getReply() throws RemoteExecutionException, IOException, ClassNotFoundException {
+		return decodeReply(0);
+	}
+	
+	/**
+	 * returns reply data starting at given offset of the message, or throws exception sent 
+	 * by server
+	 */
+	protected byte[] decodeReply(int offset) throws RemoteExecutionException, IOException, ClassNotFoundException {
 		if (exceptionThrown) {
 			Exception remote;
-			ByteArrayInputStream bis = new ByteArrayInputStream(msgData);
+			ByteArrayInputStream bis = new ByteArrayInputStream(msgData, offset, msgData.length - offset);
 			ObjectInput in = null;
 			try {
 			  in = new ObjectInputStream(bis);
 			  remote = (Exception) in.readObject();
-			  throw new RemoteExecutionException(remote);
+			  throw RemoteExecutionException.fromRemote(remote);
 			}finally {
 			  try {
 			    bis.close();
@@ -73,7 +95,7 @@ public class LVClientProtocol extends LVProtocol implements ClientSideProtocol {
 			  }
 			}
 		}
-		return msgData;
+		return offset == 0 ? msgData : Arrays.copyOfRange(msgData, offset, msgData.length);
 	}
 
 	@Override
@@ -20,71 +20,281 @@ package org.blitvin.nioserver;
 
 
 import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.concurrent.atomic.AtomicInteger;
 
 
 /**
  * Base class for both client and server side of default communication protocol used
- * by nioserver
+ * by nioserver.
+ * In zero copy mode message that is received entirely in single input buffer is not copied,
+ * instead it is exposed as read-only view of the input buffer. In this case the protocol keeps
+ * reference to the input buffer (see {@link #retainedInput()}) and returns it to buffer pool 
+ * when the message is consumed and no preread data refers to the buffer.
  * @author blitvin
  *
  */
 public class LVProtocol implements ClientServerProtocol {
 
+	/*
+	 * reference counted buffer, shared between preread data and views of messages
+	 * decoded from it. Views can be released by worker threads, so counter is atomic
+	 */
+	private static final class SharedBuffer {
+		final ByteBuffer buffer;
+		private final BufferPool pool;
+		private final AtomicInteger refs = new AtomicInteger();
+		
+		SharedBuffer(ByteBuffer buffer, BufferPool pool) {
+			this.buffer = buffer;
+			this.pool = pool;
+		}
+		SharedBuffer retain() {
+			refs.incrementAndGet();
+			return this;
+		}
+		void release() {
+			if (refs.decrementAndGet() == 0 && pool != null)
+				pool.release(buffer);
+		}
+		boolean isShared() {
+			return refs.get() > 1;
+		}
+	}
+	
 	private int totalLen = -1;
 	private int readsofar = 0;
 	protected byte[] msgData = null;
+	// read-only view of current message, if it is decoded without copying
+	protected ByteBuffer requestView = null;
 	protected final static int HEADER_LENGTH = Integer.SIZE/Byte.SIZE;
+	// bytes received beyond current message, ready for reading
 	private ByteBuffer prereadData = null;
-	private ByteBuffer lenData = ByteBuffer.allocate(HEADER_LENGTH);
+	private SharedBuffer prereadOwner = null;
+	private SharedBuffer viewOwner = null;
+	private SharedBuffer adoptedInput = null;
+	// detached views and buffers they are backed by, messages copied to byte arrays own no buffer,
+	// so the queues are allocated on first detached view only
+	private ArrayDeque<ByteBuffer> detachedViews = null;
+	private ArrayDeque<SharedBuffer> detachedOwners = null;
+	private boolean inputRetained = false;
+	// header split between reads is accumulated here, no buffer is kept per connection
+	private int lenData = 0;
+	private int lenBytes = 0;
+	private BufferPool bufferPool = null;
+	private boolean zeroCopy = false;
+	private int gatheringThreshold = Integer.MAX_VALUE;
 	
-	@Override
-	public boolean addPart(ByteBuffer input) {
-		if (totalLen < 0) { // -1 actually
-			if (prereadData != null && prereadData.remaining() > 0) {
-				while(lenData.remaining() >0 && prereadData.remaining() >0)
-					lenData.put(prereadData.get());
+	/**
+	 * sets pool for allocation of buffers holding preread data and encoded messages. Without
+	 * pool heap buffers are allocated
+	 * @param bufferPool pool to use
+	 */
+	public void setBufferPool(BufferPool bufferPool) {
+		this.bufferPool = bufferPool;
+	}
+	
+	/**
+	 * enables zero copy decoding. The caller of addPart must check {@link #retainedInput()} 
+	 * after each call and stop using input buffer if the protocol retained it. Retained buffer
+	 * is released to buffer pool set by setBufferPool
+	 * @param zeroCopy true to expose messages as views of input buffer
+	 */
+	public void setZeroCopy(boolean zeroCopy) {
+		this.zeroCopy = zeroCopy;
+	}
+	
+	/**
+	 * sets length of message starting from which the message is not copied to encoded buffer.
+	 * Instead only header is encoded (see {@link #encodeHeader(byte[])}) and the message is 
+	 * written after it by gathering write
+	 * @param gatheringThreshold minimal length of message sent by gathering write
+	 */
+	public void setGatheringThreshold(int gatheringThreshold) {
+		this.gatheringThreshold = gatheringThreshold;
+	}
+	
+	/**
+	 * in zero copy mode tells whether the protocol kept reference to input buffer passed to last
+	 * addPart call. If so, the buffer is owned by the protocol from now on
+	 * @return true if input buffer is retained by the protocol
+	 */
+	public boolean retainedInput() {
+		boolean retVal = inputRetained;
+		inputRetained = false;
+		return retVal;
+	}
+	
+	protected ByteBuffer allocate(int size) {
+		return bufferPool != null ? bufferPool.acquire(size) : ByteBuffer.allocate(size);
+	}
+	
+	/**
+	 * returns buffers held by the protocol to the pool, called when connection is closed
+	 */
+	public void releaseBuffers() {
+		releasePreread();
+		releaseView();
+		if (detachedViews == null)
+			return;
+		detachedViews.clear();
+		while(!detachedOwners.isEmpty())
+			detachedOwners.poll().release();
+	}
+	
+	/**
+	 * detaches current complete message from decoding state, so next message can be decoded
+	 * while this one is in use. Buffer backing the message view is released by 
+	 * releaseDetachedMessage
+	 * @return current message, either read-only view or wrapped byte array
+	 */
+	public ByteBuffer detachMessage() {
+		ByteBuffer retVal;
+		if (requestView != null) {
+			retVal = requestView;
+			if (detachedViews == null) {
+				detachedViews = new ArrayDeque<>(1);
+				detachedOwners = new ArrayDeque<>(1);
 			}
-			if (lenData.remaining() > 0 )
-				while(lenData.remaining() > 0 && input.remaining() > 0)
-					lenData.put(input.get());
-			if (lenData.remaining() >0)
-				return false; // didn't get all the bytes of length
-			lenData.flip();
-			totalLen = lenData.getInt();
-			lenData.clear();
-			totalLen = handleNegativeLen(totalLen);
-			//if (totalLen < KEEPALIVE_NOTIFICATION)
-			//	throw new IllegalArgumentException("got negative length of message");
-			if (totalLen >=0) {
-				msgData = new byte[totalLen];
-				readsofar  = 0;
+			detachedViews.add(requestView);
+			detachedOwners.add(viewOwner);
+		} else
+			retVal = ByteBuffer.wrap(msgData);
+		viewOwner = null;
+		requestView = null;
+		inboundMessageHasBeenConsumed();
+		return retVal;
+	}
+	
+	/**
+	 * releases message returned by detachMessage. Messages are usually released in order they
+	 * were detached, so the search is short
+	 * @param message the message as returned by detachMessage
+	 */
+	public void releaseDetachedMessage(ByteBuffer message) {
+		if (detachedViews == null)
+			return;
+		Iterator<ByteBuffer> views = detachedViews.iterator();
+		Iterator<SharedBuffer> owners = detachedOwners.iterator();
+		while(views.hasNext()) {
+			SharedBuffer owner = owners.next();
+			if (views.next() == message) {
+				views.remove();
+				owners.remove();
+				owner.release();
+				return;
 			}
+		}
+	}
+	
+	private void releasePreread() {
+		if (prereadOwner != null)
+			prereadOwner.release();
+		prereadOwner = null;
+		prereadData = null;
+	}
+	
+	private void releaseView() {
+		if (viewOwner != null)
+			viewOwner.release();
+		viewOwner = null;
+		requestView = null;
+	}
+	
+	/*
+	 * keeps bytes that belong to next messages. Preread data is in "read" mode, so
+	 * it is compacted, grown if necessary and flipped back. Buffer that backs views of
+	 * messages is never modified, its content is copied to new buffer instead
+	 */
+	private void appendPreread(ByteBuffer input) {
+		if (prereadData == null) {
+			prereadOwner = new SharedBuffer(allocate(input.remaining()), bufferPool).retain();
+			prereadData = prereadOwner.buffer;
+		} else if (prereadOwner.isShared() || 
+				prereadData.capacity() - prereadData.remaining() < input.remaining()) {
+			SharedBuffer grown = new SharedBuffer(allocate(prereadData.remaining() + input.remaining()), 
+					bufferPool).retain();
+			grown.buffer.put(prereadData);
+			releasePreread();
+			prereadOwner = grown;
+			prereadData = grown.buffer;
+		} else {
+			prereadData.compact();
+		}
+		prereadData.put(input);
+		prereadData.flip();
+	}
+	
+	/*
+	 * consumes bytes of current message from src, srcOwner is null if src is caller's input
+	 * returns true if message is complete
+	 */
+	private boolean decode(ByteBuffer src, SharedBuffer srcOwner) {
+		if (totalLen < 0) { // header is not read yet
+			if (lenBytes == 0 && src.remaining() >= HEADER_LENGTH)
+				totalLen = src.getInt();
 			else {
-				if (input.hasRemaining()) {
-					prereadData = ByteBuffer.allocate(input.remaining());
-					prereadData.put(input);
-					prereadData.flip();
-					return true; // special notifications
+				while(lenBytes < HEADER_LENGTH && src.remaining() > 0) {
+					lenData = (lenData << 8) | (src.get() & 0xff);
+					lenBytes++;
 				}
+				if (lenBytes < HEADER_LENGTH)
+					return false; // didn't get all the bytes of length
+				totalLen = lenData;
+				lenData = 0;
+				lenBytes = 0;
 			}
+			totalLen = handleNegativeLen(totalLen);
+			if (totalLen < 0)
+				return true; // special notifications, consist of header only
+			readsofar  = 0;
 		}
-		
-		if (prereadData != null && prereadData.remaining() >0) {
-			readsofar = prereadData.remaining() > totalLen ? totalLen:prereadData.remaining();
-			prereadData.get(msgData, 0, readsofar);
-		}
-		if (readsofar < totalLen && input.hasRemaining()) {
-			int addedFromBuf = input.remaining() > totalLen - readsofar ? totalLen - readsofar: input.remaining();
-			input.get(msgData, readsofar, addedFromBuf);
-			readsofar += addedFromBuf;
-			if (input.hasRemaining()) {
-				prereadData = ByteBuffer.allocate(input.remaining());
-				prereadData.put(input);
-				prereadData.flip();
+		if (msgData == null) {
+			if (zeroCopy && src.remaining() >= totalLen) {
+				takeView(src, srcOwner);
+				return true;
 			}
+			msgData = new byte[totalLen];
 		}
+		int chunk = src.remaining() > totalLen - readsofar ? totalLen - readsofar: src.remaining();
+		src.get(msgData, readsofar, chunk);
+		readsofar += chunk;
 		return readsofar == totalLen;
 	}
+	
+	private void takeView(ByteBuffer src, SharedBuffer srcOwner) {
+		ByteBuffer view = src.duplicate();
+		view.limit(src.position() + totalLen);
+		requestView = view.slice().asReadOnlyBuffer();
+		src.position(src.position() + totalLen);
+		readsofar = totalLen;
+		if (srcOwner == null) {
+			srcOwner = adoptedInput = new SharedBuffer(src, bufferPool);
+			inputRetained = true;
+		}
+		viewOwner = srcOwner.retain();
+	}
+	
+	@Override
+	public boolean addPart(ByteBuffer input) {
+		if (prereadData != null) {
+			// earlier bytes are to be decoded first
+			appendPreread(input);
+			return hasCompleteMessage();
+		}
+		boolean complete = decode(input, null);
+		if (input.hasRemaining()) {
+			if (adoptedInput != null) { // bytes of next messages stay in place
+				prereadOwner = adoptedInput.retain();
+				prereadData = input;
+			}
+			else
+				appendPreread(input);
+		}
+		adoptedInput = null;
+		return complete;
+	}
 	/**
 	 * negative length indicate special object passing, in case of message from server to
 	 * client this indicates exception is transmitted
@@ -98,21 +308,14 @@ public class LVProtocol implements ClientServerProtocol {
 	}
 	@Override
 	public boolean hasCompleteMessage() {
-		if (msgData == null && prereadData != null) {
-			if (prereadData.remaining() >= HEADER_LENGTH) {
-				totalLen = prereadData.getInt();
-				totalLen = handleNegativeLen(totalLen);
-				//if (totalLen <0)
-				//	throw new IllegalArgumentException("message length is negative");
-				msgData = new byte[totalLen];
-				readsofar = prereadData.remaining() >= totalLen ? totalLen: prereadData.remaining();
-				prereadData.get(msgData,0,readsofar);
-				if (!prereadData.hasRemaining())
-					prereadData = null;
-			}
+		if (totalLen >= 0 && readsofar == totalLen && (msgData != null || requestView != null))
+			return true;
+		if (prereadData != null) {
+			boolean complete = decode(prereadData, prereadOwner);
+			if (!prereadData.hasRemaining())
+				releasePreread();
+			return complete;
 		}
-		if (msgData != null)
-			return totalLen >= 0 && readsofar == totalLen;
 		return false;
 	}
 
@@ -121,13 +324,14 @@ public class LVProtocol implements ClientServerProtocol {
 		totalLen = -1;
 		readsofar = 0;
 		msgData = null;
+		releaseView();
 	}
 
 	@Override
 	public ByteBuffer encodeMessage(byte[] msg) {
 		if (msg == null)
 			return encodeEmptyMessage();
-		ByteBuffer outboundData  = ByteBuffer.allocate(msg.length + HEADER_LENGTH);
+		ByteBuffer outboundData  = allocate(msg.length + HEADER_LENGTH);
 		outboundData.putInt(msg.length);
 		if (msg.length > 0)
 			outboundData.put(msg);
@@ -137,9 +341,52 @@ public class LVProtocol implements ClientServerProtocol {
 
 
 
+	/**
+	 * encodes header of message that is to be written by gathering write, followed by the
+	 * message itself wrapped in place
+	 * @param msg message to send
+	 * @return header of the message, or null if message is shorter than gathering threshold, 
+	 * in this case whole message is encoded by encodeMessage
+	 */
+	public ByteBuffer encodeHeader(byte[] msg) {
+		ByteBuffer header = encodeHeader(msg, 0);
+		if (header != null)
+			header.flip();
+		return header;
+	}
+	
+	/**
+	 * encodes header of message whose value is sent separately, e.g. region of a file
+	 * @param length length of the value
+	 * @return header of the message
+	 */
+	public ByteBuffer encodeRegionHeader(int length) {
+		ByteBuffer header = allocateHeader(length, 0);
+		header.flip();
+		return header;
+	}
+	
+	/*
+	 * header of message preceded by extraLength bytes of header of higher level protocol
+	 */
+	protected ByteBuffer encodeHeader(byte[] msg, int extraLength) {
+		if (msg == null || msg.length < gatheringThreshold)
+			return null;
+		return allocateHeader(msg.length, extraLength);
+	}
+	
+	/*
+	 * header is left in "write" mode, so higher level protocol can append to it
+	 */
+	protected ByteBuffer allocateHeader(int length, int extraLength) {
+		ByteBuffer header = allocate(HEADER_LENGTH + extraLength);
+		header.putInt(extraLength + length);
+		return header;
+	}
+	
 	@Override
 	public ByteBuffer encodeEmptyMessage() {
-		ByteBuffer outboundData = ByteBuffer.allocate(HEADER_LENGTH);
+		ByteBuffer outboundData = allocate(HEADER_LENGTH);
 		outboundData.putInt(0);
 		outboundData.flip();
 		return outboundData;
@@ -30,6 +30,14 @@ import java.nio.ByteBuffer;
  */
 public class LVServerProtocol extends LVProtocol implements ServerSideProtocol {
 
+	/**
+	 * ServerBusyException serialized once, as replies rejecting requests of overloaded server 
+	 * should be cheap
+	 */
+	protected static final byte[] SERIALIZED_BUSY_EXCEPTION = serialize(new ServerBusyException());
+	private static final byte[] BUSY_REPLY = ByteBuffer.allocate(HEADER_LENGTH + SERIALIZED_BUSY_EXCEPTION.length)
+			.putInt(-SERIALIZED_BUSY_EXCEPTION.length).put(SERIALIZED_BUSY_EXCEPTION).array();
+	
 	private int serviceCode = 0;
 	
 	@Override
@@ -49,6 +57,9 @@ public class LVServerProtocol extends LVProtocol implements ServerSideProtocol {
 		case CLOSE_NOTIFICATION:
 		case KEEPALIVE_NOTIFICATION:
 			return serviceCode = totalLen;
+		case REQUEST_TIMEOUT_NOTIFICATION:
+			serviceCode = totalLen;
+			return HEADER_LENGTH; // the value follows the code
 		default:
 			if (totalLen >= 0)
 				return totalLen;
@@ -58,6 +69,25 @@ public class LVServerProtocol extends LVProtocol implements ServerSideProtocol {
 	
 	@Override
 	public ByteBuffer putExceptionReply(Exception exception) {
+		byte[] serialized = serializeException(exception);
+		ByteBuffer outboundData = allocate(serialized.length +LVProtocol.HEADER_LENGTH);
+			outboundData.putInt(-serialized.length);
+		outboundData.put(serialized);
+		outboundData.flip();
+		return outboundData;
+	}
+	
+	@Override
+	public ByteBuffer putBusyReply() {
+		// heap buffer is not returned to buffer pool, so all replies share the array
+		return ByteBuffer.wrap(BUSY_REPLY).asReadOnlyBuffer();
+	}
+	
+	protected byte[] serializeException(Exception exception) {
+		return serialize(exception);
+	}
+	
+	private static byte[] serialize(Exception exception) {
 		ByteArrayOutputStream bos = new ByteArrayOutputStream();
 		ObjectOutput out = null;
 		byte[] serialized = null;
@@ -80,21 +110,31 @@ public class LVServerProtocol extends LVProtocol implements ServerSideProtocol {
 		    // ignore close exception
 		  }
 		}
-		ByteBuffer outboundData = ByteBuffer.allocate(serialized.length +LVProtocol.HEADER_LENGTH);
-			outboundData.putInt(-serialized.length);
-		outboundData.put(serialized);
-		outboundData.flip();
-		return outboundData;
+		return serialized;
 	}
 
 	@Override
 	public byte[] getRequest() {
+		if (msgData == null && requestView != null) {
+			msgData = new byte[requestView.remaining()];
+			requestView.duplicate().get(msgData);
+		}
 		return msgData;
 	}
+	
+	@Override
+	public ByteBuffer takeRequest() {
+		return detachMessage();
+	}
+	
+	@Override
+	public void requestProcessed(ByteBuffer request) {
+		releaseDetachedMessage(request);
+	}
 
 	@Override
 	public boolean hasCompleteMessage(){
-		if (serviceCode <0)
+		if (serviceCode <0 && serviceCode != REQUEST_TIMEOUT_NOTIFICATION)
 			return true;
 		return super.hasCompleteMessage();
 	}
@@ -0,0 +1,73 @@
+/*
+ * (C) Copyright Boris Litvin 2014
+ * This file is part of NioServer library.
+ *
+ *  NioServer is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   NioServer is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with NioServer.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.blitvin.nioserver;
+
+/**
+ * LoadShedder decides whether overloaded server should reject requests instead of queuing them.
+ * Following CoDel, the decision is based on queueing delay i.e. time request waits for a thread
+ * of thread pool: short bursts are absorbed by the queue, but if delay stays above target for 
+ * the whole interval, requests are rejected by busy reply without touching thread pool. 
+ * Rejecting lasts an interval after last too long delay was observed, then requests are let in
+ * again to measure the delay anew. Shared by reactors of NioServer and updated by worker threads
+ * without locking, races only shift the decision by a request or two
+ * @author blitvin
+ *
+ */
+class LoadShedder {
+	private final long target; // nanoseconds
+	private final long interval; // nanoseconds
+	private volatile long firstAboveTime = 0; // start of period with delay above target, 0 if none
+	private volatile long shedUntil = 0;
+	
+	/**
+	 * @param target acceptable queueing delay in nanoseconds
+	 * @param interval time delay may stay above target before requests are rejected, nanoseconds
+	 */
+	LoadShedder(long target, long interval) {
+		this.target = target;
+		this.interval = interval;
+	}
+	
+	/**
+	 * records queueing delay of request taken by worker thread
+	 * @param delay time since the request was handed to thread pool, nanoseconds
+	 */
+	void observe(long delay) {
+		if (delay < target) {
+			firstAboveTime = 0;
+			shedUntil = 0;
+			return;
+		}
+		long now = System.nanoTime();
+		long first = firstAboveTime;
+		if (first == 0)
+			firstAboveTime = now;
+		else if (now - first >= interval)
+			shedUntil = now + interval;
+	}
+	
+	/**
+	 * 
+	 * @return true if requests should be rejected
+	 */
+	boolean isShedding() {
+		long until = shedUntil;
+		return until != 0 && System.nanoTime() - until < 0;
+	}
+}
@@ -0,0 +1,117 @@
+/*
+ * (C) Copyright Boris Litvin 2014
+ * This file is part of NioServer library.
+ *
+ *  NioServer is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   NioServer is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with NioServer.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.blitvin.nioserver;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Lock free queue with many producers and single consumer, used for hand-off of replies from
+ * worker threads to reactor. Elements are kept in ring buffer, so adding element takes single
+ * CAS and allocates nothing. Ring buffer has fixed capacity, elements added while it is full
+ * go to unbounded overflow queue, so add never fails or blocks. Order of elements is kept
+ * only as long as ring doesn't overflow, which is fine for replies of different connections.
+ * Only single thread may call poll
+ * @author blitvin
+ *
+ * @param <E> type of elements
+ */
+class MpscArrayQueue<E> {
+	// counters written by different threads are padded to separate cache lines
+	@SuppressWarnings({ "serial", "unused" })
+	private static final class PaddedAtomicLong extends AtomicLong {
+		long p1, p2, p3, p4, p5, p6, p7;
+	}
+	
+	private final AtomicReferenceArray<E> ring;
+	private final int mask;
+	// next slot to be claimed by producer
+	private final AtomicLong producerIndex = new PaddedAtomicLong();
+	// producers may claim slots below the limit without reading consumerIndex
+	private final AtomicLong producerLimit = new PaddedAtomicLong();
+	// next slot to be taken by consumer, written by consumer only
+	private final AtomicLong consumerIndex = new PaddedAtomicLong();
+	private final ConcurrentLinkedQueue<E> overflow = new ConcurrentLinkedQueue<>();
+	
+	/**
+	 * @param capacity capacity of ring buffer, rounded up to power of two
+	 */
+	MpscArrayQueue(int capacity) {
+		if (capacity < 1 || capacity > (1 << 30))
+			throw new IllegalArgumentException("illegal capacity " + capacity);
+		int size = Integer.highestOneBit(capacity);
+		if (size < capacity)
+			size <<= 1;
+		ring = new AtomicReferenceArray<>(size);
+		mask = size - 1;
+		producerLimit.set(size);
+	}
+	
+	/**
+	 * adds element to ring buffer, or to overflow queue if the ring is full. Called by producers
+	 * @param e element, not null
+	 */
+	void add(E e) {
+		if (e == null)
+			throw new NullPointerException();
+		long p;
+		do {
+			p = producerIndex.get();
+			if (p >= producerLimit.get()) {
+				long limit = consumerIndex.get() + mask + 1;
+				if (p >= limit) {
+					overflow.add(e);
+					return;
+				}
+				producerLimit.set(limit);
+			}
+		} while(!producerIndex.compareAndSet(p, p + 1));
+		ring.lazySet((int) p & mask, e);
+	}
+	
+	/**
+	 * removes element from the queue. Called by consumer thread only
+	 * @return element or null if queue is empty
+	 */
+	E poll() {
+		long c = consumerIndex.get();
+		int idx = (int) c & mask;
+		E retVal = ring.get(idx);
+		if (retVal == null) {
+			if (c == producerIndex.get())
+				return overflow.poll();
+			// slot is claimed, producer is about to store the element
+			do {
+				retVal = ring.get(idx);
+			} while(retVal == null);
+		}
+		ring.lazySet(idx, null);
+		consumerIndex.lazySet(c + 1);
+		return retVal;
+	}
+	
+	/**
+	 * 
+	 * @return true if there are no elements in the queue. Called by consumer thread
+	 */
+	boolean isEmpty() {
+		return consumerIndex.get() == producerIndex.get() && overflow.isEmpty();
+	}
+}
@@ -0,0 +1,125 @@
+/*
+ * (C) Copyright Boris Litvin 2014
+ * This file is part of NioServer library.
+ *
+ *  NioServer is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   NioServer is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with NioServer.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.blitvin.nioserver;
+
+import java.nio.ByteBuffer;
+
+/**
+ * MultiplexedRequestRunner executes single request of multiplexed connection, see 
+ * {@link MultiplexedServerProtocol}. Several runners of the same connection may run concurrently,
+ * so request and reply are kept per call and not in client context. Completed runner is queued
+ * on the connection, and reactor writes replies in order of completion
+ *
+ */
+class MultiplexedRequestRunner<CC extends ClientContext> extends TimedTask {
+
+	final Reactor<CC> reactor;
+	final ServerContext<CC> serverContext;
+	final MessageProcessor<CC> mp;
+	final ByteBuffer request;
+	final int requestId;
+	ByteBuffer reply;
+	ByteBuffer replyBody; // reply array written after reply by gathering write, null if none
+	FileRegion replyRegion; // file region transferred after reply, null if none
+	long dispatchTime = 0; // for measurement of queueing delay, 0 if not measured
+	
+	MultiplexedRequestRunner(Reactor<CC> reactor, ServerContext<CC> serverContext, 
+			MessageProcessor<CC> mp, ByteBuffer request, int requestId) {
+		this.reactor = reactor;
+		this.serverContext = serverContext;
+		this.mp = mp;
+		this.request = request;
+		this.requestId = requestId;
+	}
+	
+	@Override
+	public ClientContext getClientContext() {
+		return serverContext.getClientContext();
+	}
+	
+	@Override
+	public void run() {
+		if (dispatchTime != 0)
+			reactor.requestStarted(dispatchTime);
+		if (start()) {
+			execute();
+			complete(); // reactor drops reply of timed out call
+		}
+		serverContext.completedCalls.add(this);
+		reactor.replyReady(serverContext.getClientContext());
+	}
+	
+	/**
+	 * executes the request, encodes the reply and queues the call on the connection. Called by
+	 * worker thread, or by reactor thread for {@link NonBlocking} processors
+	 */
+	void process() {
+		execute();
+		serverContext.completedCalls.add(this);
+	}
+	
+	private void execute() {
+		MultiplexedServerProtocol protocol = (MultiplexedServerProtocol) serverContext.protocol;
+		CC context = serverContext.getClientContext();
+		ClientContext.beginCall();
+		try {
+			context.setRequestBuffer(request);
+			mp.processData(context);
+			FileRegion region = context.takeReplyRegion();
+			if (region != null) {
+				reply = protocol.encodeRegionHeader(requestId, region.length());
+				if (reply != null)
+					replyRegion = region;
+				else
+					reply = protocol.encodeReply(requestId, region.read());
+				return;
+			}
+			byte[] replyBytes = context.getReply();
+			reply = protocol.encodeReplyHeader(requestId, replyBytes);
+			if (reply != null)
+				replyBody = ByteBuffer.wrap(replyBytes);
+			else
+				reply = protocol.encodeReply(requestId, replyBytes);
+		}
+		catch (Exception e) {
+			reply = protocol.encodeExceptionReply(requestId, e);
+		}
+		finally {
+			ClientContext.endCall();
+		}
+	}
+	
+	/**
+	 * @return true if the reply, including its body or file region, is written completely
+	 */
+	boolean isReplyWritten() {
+		return !reply.hasRemaining() && (replyBody == null || !replyBody.hasRemaining())
+				&& (replyRegion == null || replyRegion.isSent());
+	}
+	
+	/**
+	 * releases encoded reply and closes file region of the reply, if any. Called by reactor
+	 * once the reply is written or dropped
+	 */
+	void releaseReply(BufferPool bufferPool) {
+		bufferPool.release(reply);
+		if (replyRegion != null)
+			replyRegion.close();
+	}
+}
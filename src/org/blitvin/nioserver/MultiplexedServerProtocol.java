@@ -0,0 +1,89 @@
+/*
+ * (C) Copyright Boris Litvin 2014
+ * This file is part of NioServer library.
+ *
+ *  NioServer is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   NioServer is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with NioServer.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.blitvin.nioserver;
+
+import java.nio.ByteBuffer;
+/**
+ * API of server side of protocol carrying request id in each message. Requests of a connection
+ * using such protocol are processed concurrently and replies are sent as soon as they are ready,
+ * client matches replies to requests by the id
+ * @see MuxServerProtocol
+ * @author blitvin
+ *
+ */
+public interface MultiplexedServerProtocol extends ServerSideProtocol {
+	/**
+	 * reads id of request returned by takeRequest, request data follows the id
+	 * @param request request as returned by takeRequest
+	 * @return id of the request
+	 */
+	int readRequestId(ByteBuffer request);
+	/**
+	 * encodes reply to the request with given id
+	 * @param requestId id of the request
+	 * @param reply reply set by business logic, may be null
+	 * @return encoded reply
+	 */
+	ByteBuffer encodeReply(int requestId, byte[] reply);
+	/**
+	 * encodes header of reply to the request with given id, the reply array is written after
+	 * the header by gathering write, see {@link ServerSideProtocol#encodeHeader(byte[])}
+	 * @param requestId id of the request
+	 * @param reply reply set by business logic
+	 * @return header of the reply, or null if the reply is to be encoded by encodeReply
+	 */
+	default ByteBuffer encodeReplyHeader(int requestId, byte[] reply) {
+		return null;
+	}
+	/**
+	 * encodes header of reply to the request with given id whose value is region of a file,
+	 * see {@link ServerSideProtocol#encodeRegionHeader(int)}
+	 * @param requestId id of the request
+	 * @param length length of the region
+	 * @return header of the reply, or null if the region is to be read and encoded by encodeReply
+	 */
+	default ByteBuffer encodeRegionHeader(int requestId, int length) {
+		return null;
+	}
+	/**
+	 * serializes exception happened during processing of request with given id
+	 * @param requestId id of the request
+	 * @param e exception as caught by business logic code wrapper
+	 * @return serialized exception
+	 */
+	ByteBuffer encodeExceptionReply(int requestId, Exception e);
+	/**
+	 * encodes reply rejecting request with given id because server is overloaded, 
+	 * see {@link ServerSideProtocol#putBusyReply()}
+	 * @param requestId id of the request
+	 * @return encoded reply
+	 */
+	default ByteBuffer encodeBusyReply(int requestId) {
+		return encodeExceptionReply(requestId, new ServerBusyException());
+	}
+	/**
+	 * encodes reply to request with given id that was not processed before its deadline,
+	 * see {@link ServerSideProtocol#putTimeoutReply()}
+	 * @param requestId id of the request
+	 * @return encoded reply
+	 */
+	default ByteBuffer encodeTimeoutReply(int requestId) {
+		return encodeExceptionReply(requestId, new RequestTimeoutException());
+	}
+}
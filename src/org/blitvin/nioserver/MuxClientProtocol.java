@@ -0,0 +1,74 @@
+/*
+ * (C) Copyright Boris Litvin 2014
+ * This file is part of NioServer library.
+ *
+ *  NioServer is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   NioServer is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with NioServer.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.blitvin.nioserver;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * client side of multiplexed protocol, see {@link MuxServerProtocol}. Requests encoded by 
+ * encodeMessage carry id 0, so the protocol can be used by sequential clients as well
+ * @author blitvin
+ *
+ */
+public class MuxClientProtocol extends LVClientProtocol {
+
+	/**
+	 * encodes request with given id
+	 * @param requestId id client uses for matching the reply
+	 * @param msg request data, may be null
+	 * @return encoded request
+	 */
+	public ByteBuffer encodeRequest(int requestId, byte[] msg) {
+		int len = msg == null ? 0 : msg.length;
+		ByteBuffer outboundData = allocate(HEADER_LENGTH + MuxServerProtocol.REQUEST_ID_LENGTH + len);
+		outboundData.putInt(MuxServerProtocol.REQUEST_ID_LENGTH + len);
+		outboundData.putInt(requestId);
+		if (len > 0)
+			outboundData.put(msg);
+		outboundData.flip();
+		return outboundData;
+	}
+
+	@Override
+	public ByteBuffer encodeMessage(byte[] msg) {
+		return encodeRequest(0, msg);
+	}
+
+	@Override
+	public ByteBuffer encodeEmptyMessage() {
+		return encodeRequest(0, null);
+	}
+
+	/**
+	 * 
+	 * @return id of request the current reply belongs to
+	 * @throws IOException if the reply doesn't contain id
+	 */
+	public int getReplyId() throws IOException {
+		if (msgData == null || msgData.length < MuxServerProtocol.REQUEST_ID_LENGTH)
+			throw new IOException("multiplexed reply is shorter than request id");
+		return ByteBuffer.wrap(msgData).getInt();
+	}
+
+	@Override
+	public byte[] getReply() throws RemoteExecutionException, IOException, ClassNotFoundException {
+		return decodeReply(MuxServerProtocol.REQUEST_ID_LENGTH);
+	}
+}
@@ -0,0 +1,100 @@
+/*
+ * (C) Copyright Boris Litvin 2014
+ * This file is part of NioServer library.
+ *
+ *  NioServer is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   NioServer is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with NioServer.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.blitvin.nioserver;
+
+import java.nio.ByteBuffer;
+
+/**
+ * server side of multiplexed protocol. The protocol extends LV protocol, value of each 
+ * request and reply starts with id of the request, so replies can be sent out of order. 
+ * Service messages are the same as in LV protocol
+ * @see MuxClientProtocol
+ * @author blitvin
+ *
+ */
+public class MuxServerProtocol extends LVServerProtocol implements MultiplexedServerProtocol {
+	/**
+	 * length of request id preceding data of request and reply
+	 */
+	public static final int REQUEST_ID_LENGTH = Integer.SIZE/Byte.SIZE;
+
+	@Override
+	public ByteBuffer takeRequest() {
+		ByteBuffer request = super.takeRequest();
+		if (request.remaining() < REQUEST_ID_LENGTH) {
+			requestProcessed(request);
+			throw new IllegalArgumentException("multiplexed request is shorter than request id");
+		}
+		return request;
+	}
+
+	@Override
+	public int readRequestId(ByteBuffer request) {
+		return request.getInt();
+	}
+
+	@Override
+	public ByteBuffer encodeReply(int requestId, byte[] reply) {
+		int len = reply == null ? 0 : reply.length;
+		ByteBuffer outboundData = allocate(HEADER_LENGTH + REQUEST_ID_LENGTH + len);
+		outboundData.putInt(REQUEST_ID_LENGTH + len);
+		outboundData.putInt(requestId);
+		if (len > 0)
+			outboundData.put(reply);
+		outboundData.flip();
+		return outboundData;
+	}
+
+	@Override
+	public ByteBuffer encodeReplyHeader(int requestId, byte[] reply) {
+		ByteBuffer header = encodeHeader(reply, REQUEST_ID_LENGTH);
+		if (header != null) {
+			header.putInt(requestId);
+			header.flip();
+		}
+		return header;
+	}
+
+	@Override
+	public ByteBuffer encodeRegionHeader(int requestId, int length) {
+		ByteBuffer header = allocateHeader(length, REQUEST_ID_LENGTH);
+		header.putInt(requestId);
+		header.flip();
+		return header;
+	}
+
+	@Override
+	public ByteBuffer encodeBusyReply(int requestId) {
+		return encodeSerializedException(requestId, SERIALIZED_BUSY_EXCEPTION);
+	}
+
+	@Override
+	public ByteBuffer encodeExceptionReply(int requestId, Exception e) {
+		return encodeSerializedException(requestId, serializeException(e));
+	}
+	
+	private ByteBuffer encodeSerializedException(int requestId, byte[] serialized) {
+		ByteBuffer outboundData = allocate(HEADER_LENGTH + REQUEST_ID_LENGTH + serialized.length);
+		outboundData.putInt(-(REQUEST_ID_LENGTH + serialized.length));
+		outboundData.putInt(requestId);
+		outboundData.put(serialized);
+		outboundData.flip();
+		return outboundData;
+	}
+}
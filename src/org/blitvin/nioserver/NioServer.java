@@ -20,19 +20,13 @@ package org.blitvin.nioserver;
 
 import java.io.IOException;
 import java.net.InetSocketAddress;
-//import java.net.StandardSocketOptions;
-import java.nio.ByteBuffer;
-import java.nio.channels.ClosedChannelException;
+import java.net.StandardSocketOptions;
 import java.nio.channels.SelectionKey;
 import java.nio.channels.Selector;
 import java.nio.channels.ServerSocketChannel;
 import java.nio.channels.SocketChannel;
 import java.nio.channels.spi.SelectorProvider;
-import java.util.Collection;
-import java.util.HashMap;
-import java.util.Iterator;
 import java.util.concurrent.ExecutorService;
-import java.util.concurrent.LinkedBlockingQueue;
 
 /**
  * 
@@ -69,6 +63,14 @@ import java.util.concurrent.LinkedBlockingQueue;
  * ClientContext and MessageProcessor objects during NioServer work, on can use 
  * NioServer(NioServerInitializer) constructor. It follows builder pattern, one specifies 
  *  parameters for tuning of the NioServer execution.
+ *  
+ * By default single NioServer thread accepts connections and does all network I/O. On machines
+ * with many cores this thread can become a bottleneck, so NioServerInitializer.setReactorCount 
+ * allows to spread connections among several reactors i.e. threads each with its own selector.
+ * In this mode NioServer thread only accepts connections and hands them over to reactors.
+ * Alternatively NioServerInitializer.setListenerShards opens several listening sockets on the same
+ * port with SO_REUSEPORT, each one accepted and served by its own reactor, so the kernel balances
+ * incoming connections and accept is not serialized on single thread.
  * 
  * @author blitvin
  *
@@ -76,228 +78,96 @@ import java.util.concurrent.LinkedBlockingQueue;
 public class NioServer<CC extends ClientContext,MP extends MessageProcessor<CC>> implements Runnable {
 	
 	
-	// The channel on which we'll accept connections
+	// The channel on which we'll accept connections, null if listening is sharded among reactors
 		  private final ServerSocketChannel serverChannel;
 		  
-		  // The selector we'll be monitoring
-		  private final Selector selector;
-
-		  // The buffer into which we'll read data when it's available
-		  private ByteBuffer readBuffer; 
+		  // selector of acceptor, null if reactors both accept and serve connections
+		  private final Selector acceptSelector;
 		  
-		  private final ExpirationManager<SocketChannel> expirationMgr;
-		  private final HashMap<SocketChannel,ServerContext<CC>> channelContexts; // business logic state corresponding to client
-		  private final HashMap<SocketChannel, ServerContext<CC> > outboundData;
-		  private final HashMap<CC,ServerContext<CC>> workingContexts;
-		  private final LinkedBlockingQueue<CC> replyQueue;
+		  private final Reactor<CC>[] reactors;
+		  private final NioServerStatistics statistics;
 		  private final ExecutorService threadPool;
-		  private final MessageProcessorFactory<CC> mpFactory;
-		  private final ClientContextFactory<CC> ccFactory;
-		  private final ServerSideProtocolFactory protFactory;
+		  private final int reactorBalancing;
+		  private int nextReactor = 0;
 		 
-		  private boolean shutdownRequestd = false;
+		  private volatile boolean shutdownRequestd = false;
 		  private ErrorListener errorListener;
 		  
 	@Override	  
 	public void run() {
-		expirationMgr.start();
-		while (true) {
+		if (acceptSelector == null) {
+			// each reactor accepts on its own, run the first one in this thread
+			Thread[] reactorThreads = startReactors(1);
+			reactors[0].run();
+			joinReactors(reactorThreads);
+			threadPool.shutdown();
+			return;
+		}
+		Thread[] reactorThreads = startReactors(0);
+		while (!shutdownRequestd) {
 		      try {
-		        // Wait for an event one of the registered channels
-		        selector.select();
-		        if (registerOutboundDataAndCheckShouldExit()) {
-		        	expirationMgr.stop();
-		        	shutdownRequestd = true;
-		        }
-		        // Iterate over the set of keys for which events are available
-		        Iterator<SelectionKey> selectedKeys = selector.selectedKeys().iterator();
-		        while (selectedKeys.hasNext()) {
-		          SelectionKey key =  selectedKeys.next();
-		          selectedKeys.remove();
-
-		          if (!key.isValid()) {
-		            continue;
-		          }
-
-		          // Check what event is available and deal with it
-		          if (key.isAcceptable() && !shutdownRequestd) {
-		            accept(key);
-		          } else if (key.isReadable() && !shutdownRequestd) {
-		              read(key);
-		          } else if (key.isWritable()) {
-		        	  write(key);
-		          }
-		        }
-		        if (shutdownRequestd && workingContexts.isEmpty()) {
-		        	threadPool.shutdown();
-		        	for(SocketChannel channel :channelContexts.keySet()){
-		        		closeConnection(channel.keyFor(selector), channel);
-		        	}
-		        	return;
-		        }
+		        acceptSelector.select();
+		        acceptSelector.selectedKeys().clear();
+		        accept();
 		      } catch (Exception e) {
 		    	if (errorListener != null)
 		    		errorListener.notifyException(e);
 		      }
-		    }
+		}
+		try {
+			serverChannel.close();
+			acceptSelector.close();
+		} catch (IOException e) {
+			if (errorListener != null)
+	    		errorListener.notifyException(e);
+		}
+		for(Reactor<CC> reactor: reactors) {
+			reactor.shutdown();
+		}
+		joinReactors(reactorThreads);
+		threadPool.shutdown();
 	}
-	private void write(SelectionKey key) throws IOException {
-		SocketChannel channel2Write = (SocketChannel)key.channel();
-		ServerContext<CC> context= outboundData.get(channel2Write);
-		ByteBuffer outboundBuffer = context.getClientContext().outboundData;
-		channel2Write.write(outboundBuffer);
-		if(outboundBuffer.remaining() == 0) {
-			context.getClientContext().outboundData = null;
-			outboundData.remove(key);
-			if (context.getProtocol().hasCompleteMessage()) {// already have complete message
-				proceedWithMessage(context);
-				
-			}
-			else {
-				workingContexts.remove(context.clientContext);
-				
-				
-				if (shutdownRequestd) {
-					return; //don't accept further requests from this channel
-				}
-				key.interestOps(SelectionKey.OP_READ);
-				context.expirationManagerHint = expirationMgr.add(channel2Write);
-			}
+	
+	private Thread[] startReactors(int first) {
+		Thread[] reactorThreads = new Thread[reactors.length - first];
+		for(int i = first ; i < reactors.length; ++i) {
+			reactorThreads[i - first] = new Thread(reactors[i], Thread.currentThread().getName()+"-reactor-"+i);
+			reactorThreads[i - first].start();
 		}
+		return reactorThreads;
 	}
-	/**
-	 * 
-	 * @return true if server is to shut down
-	 */
-	private boolean registerOutboundDataAndCheckShouldExit() {
-		CC reply = null;
-		while((reply = replyQueue.poll()) != null) {
-			ServerContext<CC> serverContext = workingContexts.get(reply);
-			if (serverContext == null) { 
-				return true;
-			}
-			if (!reply.shouldRetainMP() || reply.isSessionEnded()) {
-				@SuppressWarnings("unchecked")
-				MessageProcessor<CC> mp = reply.unlinkMessageProcessor();
-				if (mpFactory.cacheInstances()){
-					mpFactory.reclaimUnused(mp);
-				}
-			}
-			outboundData.put(serverContext.channel, serverContext /*reply*/);
+	
+	private void joinReactors(Thread[] reactorThreads) {
+		for(Thread reactorThread: reactorThreads) {
 			try {
-				serverContext.channel.register(selector, SelectionKey.OP_WRITE);
-			} catch (ClosedChannelException e) {
-				// channel is closed , no one listens, nothing to do..
-				outboundData.remove(serverContext.channel);
+				reactorThread.join();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				break;
 			}
 		}
-		
-		return false;
 	}
 	
-	
-
-	private void accept(SelectionKey key) throws IOException {
-	    // For an accept to be pending the channel must be a server socket channel.
-	    ServerSocketChannel serverSocketChannel = (ServerSocketChannel) key.channel();
-
-	    // Accept the connection and make it non-blocking
-	    SocketChannel socketChannel = serverSocketChannel.accept();
-	    socketChannel.configureBlocking(false);
-	    
-	    //CC cont = ccFactory.newInstance();
-	    ServerContext<CC> serverContext = new ServerContext<CC>(protFactory.newInstance(),
-	    		socketChannel,ccFactory.newInstance());
-	   
-	    channelContexts.put(socketChannel, serverContext);
-	    serverContext.expirationManagerHint = expirationMgr.add(socketChannel);
-
-	    // Register the new SocketChannel with our Selector, indicating
-	    // we'd like to be notified when there's data waiting to be read
-	    socketChannel.register(this.selector, SelectionKey.OP_READ);
-	    Collection<SocketChannel> expired = expirationMgr.getExpired();
-	    if (!expired.isEmpty()) {
-	    	for(SocketChannel expiredChannel: expired) {
-	    		closeConnection(expiredChannel.keyFor(selector),expiredChannel );
-	    	}
-	    }
-	  }
-
-
-	@SuppressWarnings("unchecked")
-	private void closeConnection(SelectionKey key,SocketChannel socketChannel) throws IOException {
-//		closes++;
-		key.cancel();
-	    key.channel().close();
-	    ServerContext<CC> tmp =channelContexts.remove(socketChannel);
-	    expirationMgr.remove(socketChannel, tmp.expirationManagerHint);
-	    if (tmp.getClientContext().shouldRetainMP()) {
-	      mpFactory.reclaimUnused(tmp.getClientContext().unlinkMessageProcessor());
-	    }
-	}
-	
-	private void read(SelectionKey key) throws IOException {
-	    SocketChannel socketChannel = (SocketChannel) key.channel();
-
-	   
-	    readBuffer.clear();
-	    
-	    // Attempt to read off the channel
-	    int numRead;
-	    try {
-	      numRead = socketChannel.read(readBuffer);
-	    } catch (IOException e) {
-	      // The remote forcibly closed the connection, cancel
-	      // the selection key and close the channel.
-	     closeConnection(key, socketChannel);
-	     return;
-	    }
-
-	    if (numRead == -1) {
-	      // Remote entity shut the socket down cleanly. Do the
-	      // same from our end and cancel the channel.
-	     closeConnection(key, socketChannel);
-	      return;
-	    }
-	    
-	    readBuffer.flip();
-	    ServerContext<CC> context = channelContexts.get(socketChannel);
-	    if (context.protocol.addPart(readBuffer)) {
-	    // has complete message	
-	    	if (filterServiceMessage(context, key, socketChannel)) { 
-	    		socketChannel.keyFor(selector).cancel();
-	    		expirationMgr.remove(socketChannel, context.expirationManagerHint);
-	    		workingContexts.put(context.getClientContext(), context);
-	    		proceedWithMessage(context);
-	    	}
-	    }
-	    
-	  }
-	
-	/*
-	 * returns true if message is not service message
-	 * otherwise performs appropriate actions and return false
-	 */
-	private boolean filterServiceMessage(ServerContext<CC> context, SelectionKey key, SocketChannel socketChannel) throws IOException {
-		switch (context.protocol.getServiceMessage()) {
-		case ClientServerProtocol.CLOSE_NOTIFICATION:
-//			closeNotifications++;
-			closeConnection(key, socketChannel);
-			return false;
-		case ClientServerProtocol.KEEPALIVE_NOTIFICATION:
-			expirationMgr.touch(socketChannel, context.expirationManagerHint);
-			return false;
-		default:
-			return true;
+	private void accept() throws IOException {
+		SocketChannel socketChannel;
+		while((socketChannel = serverChannel.accept()) != null) {
+			socketChannel.configureBlocking(false);
+			chooseReactor().assign(socketChannel);
 		}
 	}
 	
-	private void proceedWithMessage(ServerContext<CC> context){
-		CC c = context.getClientContext();
-		if (!c.shouldRetainMP() || c.mp == null) {
-    		c.setMessageProcessor(mpFactory.newInstance());
-    	}
-    	threadPool.execute(new ClientRequestRunner<CC>(selector, c, replyQueue,context.getProtocol()));
+	private Reactor<CC> chooseReactor() {
+		if (reactorBalancing == NioServerInitializer.BALANCING_LEAST_CONNECTIONS) {
+			Reactor<CC> least = reactors[0];
+			for(int i = 1 ; i < reactors.length; ++i) {
+				if (reactors[i].getConnectionCount() < least.getConnectionCount())
+					least = reactors[i];
+			}
+			return least;
+		}
+		Reactor<CC> retVal = reactors[nextReactor];
+		nextReactor = (nextReactor + 1) % reactors.length;
+		return retVal;
 	}
 	
 	/**
@@ -322,27 +192,84 @@ public class NioServer<CC extends ClientContext,MP extends MessageProcessor<CC>>
 	 * @param initializer - builder object with all relevant settings set up
 	 * @throws IOException
 	 */
+	@SuppressWarnings({ "unchecked", "rawtypes" })
 	public NioServer(NioServerInitializer<CC, MP> initializer) throws IOException {
+		if (initializer.isExpirationManagerShared() 
+				&& Math.max(initializer.getListenerShards(), initializer.getReactorCount()) > 1)
+			// the manager is not thread safe, and reactors run on different threads
+			throw new IllegalStateException("expiration manager can't be shared between reactors, use setExpirationManagerFactory");
 		threadPool = initializer.getThreadPool();
-		readBuffer = ByteBuffer.allocate(initializer.getBufferSize());
-		// Create a new non-blocking server socket channel
-	    serverChannel = ServerSocketChannel.open();
-	    serverChannel.configureBlocking(false);
+		statistics = initializer.getStatistics();
 	    InetSocketAddress isa = new InetSocketAddress(initializer.getPort());
-	    serverChannel.socket().bind(isa);
-	    
-	    channelContexts = new HashMap<SocketChannel,ServerContext<CC>>();
-	    outboundData = new HashMap<SocketChannel,ServerContext<CC>>();
-	    workingContexts = new HashMap<>();
-	    replyQueue = new LinkedBlockingQueue<>();
-	    
-	    mpFactory = initializer.getProcessorFactory();
-	    ccFactory = initializer.getContextFactory();
-	    protFactory = initializer.getProtocolFactory();
-	    selector = SelectorProvider.provider().openSelector();
-	    serverChannel.register(selector, SelectionKey.OP_ACCEPT);
-	    expirationMgr = initializer.getExpirationManager();
+	    reactorBalancing = initializer.getReactorBalancing();
 	    errorListener = initializer.getErrorListener();
+	    if (initializer.getListenerShards() > 0) {
+	    	reactors = new Reactor[initializer.getListenerShards()];
+	    	try {
+	    		for(int i = 0 ; i < reactors.length; ++i) {
+	    			ServerSocketChannel channel = openServerChannel(isa, true);
+	    			try {
+	    				reactors[i] = new Reactor<CC>(initializer, threadPool, channel);
+	    			} catch (IOException | RuntimeException e) {
+	    				channel.close();
+	    				throw e;
+	    			}
+	    		}
+	    	} catch (IOException | RuntimeException e) {
+	    		// shards opened so far would keep the port bound
+	    		close(reactors);
+	    		throw e;
+	    	}
+	    	serverChannel = null;
+	    	acceptSelector = null;
+	    	return;
+	    }
+	    serverChannel = openServerChannel(isa, false);
+	    Reactor<CC>[] created = new Reactor[Math.max(1, initializer.getReactorCount())];
+	    Selector selector = null;
+	    try {
+	    	if (initializer.getReactorCount() > 0) {
+	    		for(int i = 0 ; i < created.length; ++i)
+	    			created[i] = new Reactor<CC>(initializer, threadPool, null);
+	    		selector = SelectorProvider.provider().openSelector();
+	    		serverChannel.register(selector, SelectionKey.OP_ACCEPT);
+	    	}
+	    	else
+	    		created[0] = new Reactor<CC>(initializer, threadPool, serverChannel);
+	    } catch (IOException | RuntimeException e) {
+	    	close(created);
+	    	if (selector != null)
+	    		selector.close();
+	    	serverChannel.close();
+	    	throw e;
+	    }
+	    reactors = created;
+	    acceptSelector = selector;
+	}
+	
+	// releases reactors of server that failed to start, array may be filled partially
+	private static void close(Reactor<?>[] reactors) {
+		for(Reactor<?> reactor: reactors)
+			if (reactor != null)
+				reactor.close();
+	}
+
+	private static ServerSocketChannel openServerChannel(InetSocketAddress isa, boolean reusePort) throws IOException {
+		// Create a new non-blocking server socket channel
+		ServerSocketChannel channel = ServerSocketChannel.open();
+		try {
+			channel.configureBlocking(false);
+			if (reusePort) {
+				if (!channel.supportedOptions().contains(StandardSocketOptions.SO_REUSEPORT))
+					throw new IOException("SO_REUSEPORT is not supported on this platform");
+				channel.setOption(StandardSocketOptions.SO_REUSEPORT, true);
+			}
+			channel.socket().bind(isa);
+		} catch (IOException | RuntimeException e) {
+			channel.close();
+			throw e;
+		}
+		return channel;
 	}
 
 	/**
@@ -351,8 +278,22 @@ public class NioServer<CC extends ClientContext,MP extends MessageProcessor<CC>>
 	 * thread pool etc.) is performed. Also note that shutdown procedure is not initiated immediately.
 	 */
 	public void shutdown(){
-		replyQueue.add(ccFactory.newInstance());// possible race , if newInstance is not threadsafe
-		selector.wakeup();
+		if (acceptSelector == null) {
+			for(Reactor<CC> reactor: reactors)
+				reactor.shutdown();
+		}
+		else {
+			shutdownRequestd = true;
+			acceptSelector.wakeup();
+		}
+	}
+	
+	/**
+	 * 
+	 * @return counters of events inside the server
+	 */
+	public NioServerStatistics getStatistics() {
+		return statistics;
 	}
 	
 }
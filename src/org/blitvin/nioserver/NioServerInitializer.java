@@ -21,6 +21,7 @@ package org.blitvin.nioserver;
 import java.nio.channels.SocketChannel;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
 /**
  * NioServerInitializer is builder object for NioServer. Parameters controlling various
  * aspects of NioServer are set in an object of this class, and then the object is used
@@ -47,6 +48,10 @@ public class NioServerInitializer<CC extends ClientContext, MP extends MessagePr
 	 * server can close connection
 	 */
 	public static final String CLIENT_TIMEOUT_STRING = "org.blitvin.nioserver.timeout";
+	/**
+	 * property name for resolution in msecs of timing wheel used by default expiration manager
+	 */
+	public static final String EXPIRATION_TICK_STRING = "org.blitvin.nioserver.expirationTick";
 	/**
 	 * name of property containing class name of context class implementation
 	 */
@@ -59,6 +64,86 @@ public class NioServerInitializer<CC extends ClientContext, MP extends MessagePr
 	 * name of property defining class implementing ServerSideProtocol
 	 */
 	public static final String PROTOCOL_CLASS_STRING="org.blitvin.nioserver.protocolClass";
+	/**
+	 * name of property defining number of reactors (selector threads) serving connections
+	 */
+	public static final String REACTORS_STRING = "org.blitvin.nioserver.reactors";
+	/**
+	 * name of property defining how acceptor chooses reactor for new connection, either 
+	 * "roundRobin" or "leastConnections"
+	 */
+	public static final String REACTOR_BALANCING_STRING = "org.blitvin.nioserver.reactorBalancing";
+	/**
+	 * name of property defining number of listening sockets bound to the port with SO_REUSEPORT
+	 */
+	public static final String LISTENER_SHARDS_STRING = "org.blitvin.nioserver.listenerShards";
+	/**
+	 * name of property enabling write of reply by worker thread
+	 */
+	public static final String WRITE_FROM_WORKER_STRING = "org.blitvin.nioserver.writeFromWorker";
+	/**
+	 * name of property enabling zero copy decoding of requests
+	 */
+	public static final String ZERO_COPY_DECODING_STRING = "org.blitvin.nioserver.zeroCopyDecoding";
+	/**
+	 * name of property defining length of reply starting from which reply is sent by gathering 
+	 * write without copying
+	 */
+	public static final String GATHERING_THRESHOLD_STRING = "org.blitvin.nioserver.gatheringThreshold";
+	/**
+	 * default length of reply starting from which reply is sent by gathering write
+	 */
+	public static final int DEFAULT_GATHERING_THRESHOLD = 64 * 1024;
+	/**
+	 * name of property defining how many requests of a connection can be unanswered
+	 */
+	public static final String MAX_PIPELINED_REQUESTS_STRING = "org.blitvin.nioserver.maxPipelinedRequests";
+	/**
+	 * default limit of pipelined requests per connection
+	 */
+	public static final int DEFAULT_MAX_PIPELINED_REQUESTS = 128;
+	/**
+	 * name of property defining how many requests can be unanswered by the whole server
+	 */
+	public static final String MAX_REQUESTS_IN_FLIGHT_STRING = "org.blitvin.nioserver.maxRequestsInFlight";
+	/**
+	 * name of property defining processing deadline of requests in milliseconds, 0 means no deadline
+	 */
+	public static final String REQUEST_TIMEOUT_STRING = "org.blitvin.nioserver.requestTimeout";
+	/**
+	 * name of property defining acceptable queueing delay of requests in microseconds, 
+	 * longer delay makes server reject requests
+	 */
+	public static final String LOAD_SHEDDING_TARGET_STRING = "org.blitvin.nioserver.loadSheddingTarget";
+	/**
+	 * name of property defining time in milliseconds queueing delay may stay above target 
+	 * before requests are rejected
+	 */
+	public static final String LOAD_SHEDDING_INTERVAL_STRING = "org.blitvin.nioserver.loadSheddingInterval";
+	/**
+	 * default time queueing delay may stay above target before requests are rejected, in milliseconds
+	 */
+	public static final long DEFAULT_LOAD_SHEDDING_INTERVAL = 100;
+	/**
+	 * name of property selecting thread per request executor using virtual threads
+	 */
+	public static final String VIRTUAL_THREADS_STRING = "org.blitvin.nioserver.virtualThreads";
+	/**
+	 * name of property defining number of workers of {@link AffinityExecutor}, 0 means affinity is off
+	 */
+	public static final String AFFINITY_WORKERS_STRING = "org.blitvin.nioserver.affinityWorkers";
+	/**
+	 * name of property defining queue length of affinity worker above which other workers steal from it
+	 */
+	public static final String AFFINITY_STEAL_THRESHOLD_STRING = "org.blitvin.nioserver.affinityStealThreshold";
+	/**
+	 * name of property defining time budget of request executed by reactor thread, in microseconds
+	 */
+	public static final String INLINE_EXECUTION_BUDGET_STRING = "org.blitvin.nioserver.inlineExecutionBudget";
+	/**
+	 * default time budget of request executed by reactor thread, in microseconds
+	 */
+	public static final long DEFAULT_INLINE_EXECUTION_BUDGET = 1000;
 	
 	/**
 	 * default protocol class name.
@@ -76,9 +161,22 @@ public class NioServerInitializer<CC extends ClientContext, MP extends MessagePr
 	 * This is minimal client timeout, timeout set for less than this value interpreted as no timeout
 	 */
 	public static final int MIN_CLIENT_TIMEOUT = 40;
+	/**
+	 * default resolution of timing wheel used by default expiration manager, in msecs
+	 */
+	public static final int DEFAULT_EXPIRATION_TICK = 100;
+	/**
+	 * acceptor hands new connections to reactors in turn
+	 */
+	public static final int BALANCING_ROUND_ROBIN = 0;
+	/**
+	 * acceptor hands new connection to reactor having least number of connections
+	 */
+	public static final int BALANCING_LEAST_CONNECTIONS = 1;
 	private ClientContextFactory<CC> contextFactory;
 	private ServerSideProtocolFactory protocolFactory;
 	private MessageProcessorFactory<CC> processorFactory;
+	private boolean defaultProcessorFactory; // processorFactory creates instances of messageProcessorClass
 	private Class<CC> clientContextClass;
 	private Class<ServerSideProtocol> protocolClass;
 	private Class<MP> messageProcessorClass;
@@ -86,18 +184,69 @@ public class NioServerInitializer<CC extends ClientContext, MP extends MessagePr
 	private int bufferSize;
 	private ExecutorService pool;
 	private int clientTimeout;
+	private int expirationTick;
 	private ErrorListener listener;
 	private ExpirationManager<SocketChannel> expirationMgr;
+	private ExpirationManagerFactory<SocketChannel> expirationMgrFactory;
+	private int reactors;
+	private int reactorBalancing;
+	private int listenerShards;
+	private boolean writeFromWorker;
+	private boolean zeroCopyDecoding;
+	private int gatheringThreshold;
+	private int maxPipelinedRequests;
+	private int maxRequestsInFlight;
+	private int requestTimeout;
+	private RequestLimiter requestLimiter;
+	private long loadSheddingTarget;
+	private long loadSheddingInterval;
+	private LoadShedder loadShedder;
+	private boolean virtualThreads;
+	private int affinityWorkers;
+	private int affinityStealThreshold;
+	private long inlineExecutionBudget;
+	private BufferPool bufferPool;
+	private NioServerStatistics statistics;
 	/**
 	 * returns threadpool that is used for invoking business logic methods
-	 * if none specified, Executors.newCachedThreadPool() used to create return value
+	 * if none specified, Executors.newCachedThreadPool() used to create return value, or 
+	 * {@link AffinityExecutor} if number of affinity workers is set, or virtual thread per 
+	 * request executor if virtual threads are enabled and supported by JVM
 	 * @return threadpool to use by NioServer
 	 */
 	public ExecutorService getThreadPool() {
 		if (pool != null)
 			return pool;
-		else 
-			return Executors.newCachedThreadPool();
+		if (affinityWorkers > 0)
+			return new AffinityExecutor(affinityWorkers, affinityStealThreshold);
+		if (virtualThreads) {
+			ExecutorService retVal = newVirtualThreadPerTaskExecutor();
+			if (retVal != null)
+				return retVal;
+		}
+		return Executors.newCachedThreadPool();
+	}
+	
+	/**
+	 * 
+	 * @return true if JVM supports virtual threads (Java 21 and later)
+	 */
+	public static boolean isVirtualThreadsSupported() {
+		try {
+			Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+			return true;
+		} catch (NoSuchMethodException e) {
+			return false;
+		}
+	}
+	
+	// looked up reflectively, so the library still runs on JVMs without virtual threads
+	private static ExecutorService newVirtualThreadPerTaskExecutor() {
+		try {
+			return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+		} catch (ReflectiveOperationException e) {
+			return null;
+		}
 	}
 	
 	/**
@@ -162,6 +311,7 @@ public class NioServerInitializer<CC extends ClientContext, MP extends MessagePr
 	 */
 	public MessageProcessorFactory<CC> getProcessorFactory() {
 		if (processorFactory == null) {
+			defaultProcessorFactory = true;
 			processorFactory = new MessageProcessorFactory<CC>() {
 
 				@Override
@@ -193,6 +343,7 @@ public class NioServerInitializer<CC extends ClientContext, MP extends MessagePr
 	 */
 	public void setProcessorFactory(MessageProcessorFactory<CC> processorFactory) {
 		this.processorFactory = processorFactory;
+		this.defaultProcessorFactory = false;
 	}
 	
 	/**
@@ -268,16 +419,19 @@ public class NioServerInitializer<CC extends ClientContext, MP extends MessagePr
 	public void disableClientTimeout(){
 		this.clientTimeout = -1;
 		this.expirationMgr = null;
+		this.expirationMgrFactory = null;
 	}
 	/**
 	 * sets timeot after which client connection can be closed.
-	 * Note that this method should be cancels expirationMgr set by setExpirationManager,
+	 * Note that this method should be cancels expirationMgr set by setExpirationManager 
+	 * or setExpirationManagerFactory,
 	 * that is default classes are instantiated
 	 * @param timeout
 	 */
 	public void setClientTimeout(int timeout){
 		this.clientTimeout = timeout;	
 		this.expirationMgr = null;
+		this.expirationMgrFactory = null;
 	}
 	
 	/**
@@ -288,6 +442,26 @@ public class NioServerInitializer<CC extends ClientContext, MP extends MessagePr
 		return clientTimeout >= MIN_CLIENT_TIMEOUT;
 	}
 	
+	/**
+	 * 
+	 * @return resolution of timing wheel of default expiration manager in msecs
+	 */
+	public int getExpirationTick() {
+		return expirationTick;
+	}
+	
+	/**
+	 * sets resolution of timing wheel used by default expiration manager. Connection is closed
+	 * after at least timeout and at most timeout plus tick of inactivity, smaller tick makes
+	 * eviction more precise at cost of more frequent wheel advancing
+	 * @param expirationTick tick in msecs
+	 */
+	public void setExpirationTick(int expirationTick) {
+		if (expirationTick <= 0)
+			throw new IllegalArgumentException("expiration tick should be positive");
+		this.expirationTick = expirationTick;
+	}
+	
 	/**
 	 * constructor requiring only port, rest of parameters are taken from defaults or changed
 	 * by subsequent calls of setters
@@ -318,6 +492,24 @@ public class NioServerInitializer<CC extends ClientContext, MP extends MessagePr
 			Integer clientTimeoutObj = Integer.getInteger(System.getProperty(CLIENT_TIMEOUT_STRING));
 			clientTimeout =  (clientTimeoutObj != null)? clientTimeoutObj.intValue():DEFAULT_CLIENT_TIMEOUT;
 		}
+		expirationTick = Integer.getInteger(EXPIRATION_TICK_STRING, DEFAULT_EXPIRATION_TICK);
+		reactors = Integer.getInteger(REACTORS_STRING, 0);
+		reactorBalancing = "leastConnections".equals(System.getProperty(REACTOR_BALANCING_STRING))?
+				BALANCING_LEAST_CONNECTIONS : BALANCING_ROUND_ROBIN;
+		listenerShards = Integer.getInteger(LISTENER_SHARDS_STRING, 0);
+		writeFromWorker = Boolean.getBoolean(WRITE_FROM_WORKER_STRING);
+		zeroCopyDecoding = Boolean.getBoolean(ZERO_COPY_DECODING_STRING);
+		gatheringThreshold = Integer.getInteger(GATHERING_THRESHOLD_STRING, DEFAULT_GATHERING_THRESHOLD);
+		maxPipelinedRequests = Integer.getInteger(MAX_PIPELINED_REQUESTS_STRING, DEFAULT_MAX_PIPELINED_REQUESTS);
+		maxRequestsInFlight = Integer.getInteger(MAX_REQUESTS_IN_FLIGHT_STRING, Integer.MAX_VALUE);
+		requestTimeout = Integer.getInteger(REQUEST_TIMEOUT_STRING, 0);
+		loadSheddingTarget = Long.getLong(LOAD_SHEDDING_TARGET_STRING, 0);
+		loadSheddingInterval = Long.getLong(LOAD_SHEDDING_INTERVAL_STRING, DEFAULT_LOAD_SHEDDING_INTERVAL);
+		virtualThreads = Boolean.getBoolean(VIRTUAL_THREADS_STRING);
+		affinityWorkers = Integer.getInteger(AFFINITY_WORKERS_STRING, 0);
+		affinityStealThreshold = Integer.getInteger(AFFINITY_STEAL_THRESHOLD_STRING, 
+				AffinityExecutor.DEFAULT_STEAL_THRESHOLD);
+		inlineExecutionBudget = Long.getLong(INLINE_EXECUTION_BUDGET_STRING, DEFAULT_INLINE_EXECUTION_BUDGET);
 		this.clientContextClass = clientContextClass;
 		this.messageProcessorClass = messageProcessorClass;
 		
@@ -341,6 +533,8 @@ public class NioServerInitializer<CC extends ClientContext, MP extends MessagePr
 			}
 			
 		}
+		else
+			this.protocolClass = protocolClass;
 	}
 
 	/**
@@ -369,15 +563,428 @@ public class NioServerInitializer<CC extends ClientContext, MP extends MessagePr
 	}
 	public void setExpirationManager(ExpirationManager<SocketChannel> expirationManager){
 		this.expirationMgr = expirationManager;
+		this.expirationMgrFactory = null;
 	}
 	
 	public ExpirationManager<SocketChannel> getExpirationManager(){
 		if (expirationMgr == null) {
-			if (clientTimeout <  MIN_CLIENT_TIMEOUT)
-				expirationMgr = new NoExpirationManager<>();
-			else
-				expirationMgr = new SimpleExpirationManager<>(clientTimeout);
+			expirationMgr = newDefaultExpirationManager();
 		}
 		return expirationMgr;
 	}
+	
+	/**
+	 * sets factory of expiration managers. Each reactor gets its own expiration manager, so
+	 * in multi-reactor mode this should be used instead of setExpirationManager
+	 * @param factory expiration manager factory
+	 */
+	public void setExpirationManagerFactory(ExpirationManagerFactory<SocketChannel> factory){
+		this.expirationMgrFactory = factory;
+		this.expirationMgr = null;
+	}
+	
+	/**
+	 * returns factory of expiration managers. If neither factory nor expiration manager is set,
+	 * the factory creates default managers according to client timeout. If expiration manager
+	 * was set by setExpirationManager, the factory returns this instance, so NioServer refuses
+	 * to start several reactors with it, see {@link #isExpirationManagerShared()}
+	 * @return expiration manager factory
+	 */
+	public ExpirationManagerFactory<SocketChannel> getExpirationManagerFactory(){
+		if (expirationMgrFactory != null)
+			return expirationMgrFactory;
+		if (expirationMgr != null) {
+			return new ExpirationManagerFactory<SocketChannel>() {
+				@Override
+				public ExpirationManager<SocketChannel> newInstance() {
+					return expirationMgr;
+				}
+			};
+		}
+		return new ExpirationManagerFactory<SocketChannel>() {
+			@Override
+			public ExpirationManager<SocketChannel> newInstance() {
+				return newDefaultExpirationManager();
+			}
+		};
+	}
+	
+	/**
+	 * 
+	 * @return true if all reactors would get the same expiration manager, i.e. one set by
+	 * setExpirationManager rather than by factory
+	 */
+	boolean isExpirationManagerShared() {
+		return expirationMgrFactory == null && expirationMgr != null;
+	}
+	
+	private ExpirationManager<SocketChannel> newDefaultExpirationManager(){
+		if (clientTimeout <  MIN_CLIENT_TIMEOUT)
+			return new NoExpirationManager<>();
+		else
+			return new TimingWheelExpirationManager<>(clientTimeout, expirationTick);
+	}
+	
+	/**
+	 * 
+	 * @return number of reactors serving connections, 0 means connections are accepted and
+	 * served by single NioServer thread
+	 */
+	public int getReactorCount() {
+		return reactors;
+	}
+	
+	/**
+	 * sets number of reactors i.e. threads each with its own selector serving client connections.
+	 * If set to positive value, NioServer thread only accepts connections and hands each one to 
+	 * one of reactors, so network I/O scales with number of cores. Default is 0 i.e. single 
+	 * thread accepts and serves all connections
+	 * @param reactors number of reactors
+	 */
+	public void setReactorCount(int reactors) {
+		this.reactors = reactors;
+	}
+	
+	/**
+	 * 
+	 * @return policy of choosing reactor for new connection
+	 */
+	public int getReactorBalancing() {
+		return reactorBalancing;
+	}
+	
+	/**
+	 * sets policy of choosing reactor for new connection in multi-reactor mode
+	 * @param reactorBalancing either BALANCING_ROUND_ROBIN or BALANCING_LEAST_CONNECTIONS
+	 */
+	public void setReactorBalancing(int reactorBalancing) {
+		if (reactorBalancing != BALANCING_ROUND_ROBIN && reactorBalancing != BALANCING_LEAST_CONNECTIONS)
+			throw new IllegalArgumentException("unknown reactor balancing policy "+ reactorBalancing);
+		this.reactorBalancing = reactorBalancing;
+	}
+	
+	/**
+	 * 
+	 * @return number of listening sockets sharing the port, 0 means single listening socket
+	 */
+	public int getListenerShards() {
+		return listenerShards;
+	}
+	
+	/**
+	 * sets number of listening sockets bound to the same port with SO_REUSEPORT option. Each one
+	 * is served by its own reactor which accepts and serves connections, so the kernel spreads 
+	 * incoming connections among reactors and there is no single accepting thread. The setting
+	 * takes precedence over reactor count. Requires OS support of SO_REUSEPORT (e.g. Linux 3.9+),
+	 * otherwise NioServer constructor throws IOException
+	 * @param listenerShards number of listening sockets, 0 to disable sharding
+	 */
+	public void setListenerShards(int listenerShards) {
+		this.listenerShards = listenerShards;
+	}
+	
+	/**
+	 * 
+	 * @return true if worker thread tries to write reply itself
+	 */
+	public boolean isWriteFromWorker() {
+		return writeFromWorker;
+	}
+	
+	/**
+	 * By default reactor tries to write reply as soon as it gets one from thread pool, and waits
+	 * for OP_WRITE only if the write is partial. If this flag is set, worker thread that processed
+	 * the request tries non-blocking write of the reply first, so reply doesn't wait for reactor
+	 * to wake up. Reactor still finishes partial writes and resumes reading of the connection.
+	 * The flag is ignored for multiplexed connections, their replies are always written by reactor
+	 * @param writeFromWorker true if worker should try to write reply
+	 */
+	public void setWriteFromWorker(boolean writeFromWorker) {
+		this.writeFromWorker = writeFromWorker;
+	}
+	
+	/**
+	 * 
+	 * @return true if requests are decoded without copying
+	 */
+	public boolean isZeroCopyDecoding() {
+		return zeroCopyDecoding;
+	}
+	
+	/**
+	 * enables zero copy decoding of requests by LV protocol. Request received entirely by 
+	 * single read is passed to business logic as read-only view of the read buffer (see 
+	 * {@link ClientContext#getRequestBuffer()}), the buffer is handed over to the connection
+	 * and reactor takes another one from buffer pool. Requests spanning several reads are
+	 * copied as usual
+	 * @param zeroCopyDecoding true to enable zero copy decoding
+	 */
+	public void setZeroCopyDecoding(boolean zeroCopyDecoding) {
+		this.zeroCopyDecoding = zeroCopyDecoding;
+	}
+	
+	/**
+	 * 
+	 * @return length of reply starting from which reply is sent by gathering write
+	 */
+	public int getGatheringThreshold() {
+		return gatheringThreshold;
+	}
+	
+	/**
+	 * sets length of reply starting from which LV protocol doesn't copy reply to encoded 
+	 * buffer. Only header of such reply is encoded, and the reply array set by business logic 
+	 * is written after it by gathering write. Shorter replies are copied to pooled direct buffer,
+	 * as JDK copies heap buffer to temporary direct one on write anyway. Default is 
+	 * {@link #DEFAULT_GATHERING_THRESHOLD}, Integer.MAX_VALUE turns gathering writes off
+	 * @param gatheringThreshold minimal length of reply sent by gathering write
+	 */
+	public void setGatheringThreshold(int gatheringThreshold) {
+		if (gatheringThreshold <= 0)
+			throw new IllegalArgumentException("gathering threshold should be positive "+ gatheringThreshold);
+		this.gatheringThreshold = gatheringThreshold;
+	}
+	
+	/**
+	 * 
+	 * @return limit of unanswered requests per connection
+	 */
+	public int getMaxPipelinedRequests() {
+		return maxPipelinedRequests;
+	}
+	
+	/**
+	 * Client may send requests without waiting for replies to previous ones. Such requests are 
+	 * decoded while previous request is processed, queued and executed in order, replies are 
+	 * sent in order of requests. Requests of multiplexed connection are executed concurrently. 
+	 * When number of unanswered requests of a connection reaches the limit, reading from
+	 * the connection is paused until some of the requests are processed. Limit of 1 means 
+	 * no pipelining
+	 * @param maxPipelinedRequests limit of unanswered requests per connection, at least 1
+	 */
+	public void setMaxPipelinedRequests(int maxPipelinedRequests) {
+		if (maxPipelinedRequests < 1)
+			throw new IllegalArgumentException("max pipelined requests should be positive "+ maxPipelinedRequests);
+		this.maxPipelinedRequests = maxPipelinedRequests;
+	}
+	
+	/**
+	 * 
+	 * @return limit of unanswered requests of the whole server, Integer.MAX_VALUE if unlimited
+	 */
+	public int getMaxRequestsInFlight() {
+		return maxRequestsInFlight;
+	}
+	
+	/**
+	 * Limits number of requests accepted by the server and not answered yet, over all
+	 * connections. When the limit is reached, reactors stop reading from connections, so that
+	 * TCP flow control pushes back on clients instead of requests piling up in memory when 
+	 * message processors slow down. Reading resumes as replies are written. Limit per
+	 * connection is set by {@link #setMaxPipelinedRequests(int)}. Default is no limit
+	 * @param maxRequestsInFlight limit of unanswered requests, at least 1
+	 */
+	public void setMaxRequestsInFlight(int maxRequestsInFlight) {
+		if (maxRequestsInFlight < 1)
+			throw new IllegalArgumentException("max requests in flight should be positive "+ maxRequestsInFlight);
+		this.maxRequestsInFlight = maxRequestsInFlight;
+		requestLimiter = null;
+	}
+	
+	/**
+	 * 
+	 * @return processing deadline of requests in msecs, 0 if there is no deadline
+	 */
+	public int getRequestTimeout() {
+		return requestTimeout;
+	}
+	
+	/**
+	 * sets processing deadline of requests executed by thread pool, counted from the moment
+	 * request is handed to the pool. Request not processed before the deadline is answered with
+	 * {@link RequestTimeoutException}, worker thread executing it is interrupted and its reply 
+	 * is dropped. Connection of the request is closed after the timeout reply, unless it is 
+	 * multiplexed, as business logic may still use its client context. Client can override 
+	 * the deadline for its connection, see {@link LVClientHelper#setRequestTimeout(int)}. 
+	 * Requests executed by reactor thread (see {@link NonBlocking}) have no deadline. 
+	 * Default is no deadline
+	 * @param requestTimeout deadline in msecs, 0 means no deadline
+	 */
+	public void setRequestTimeout(int requestTimeout) {
+		if (requestTimeout < 0)
+			throw new IllegalArgumentException("request timeout should not be negative "+ requestTimeout);
+		this.requestTimeout = requestTimeout;
+	}
+	
+	/**
+	 * returns limiter of requests in flight shared by reactors of NioServer
+	 */
+	RequestLimiter getRequestLimiter() {
+		if (requestLimiter == null)
+			requestLimiter = new RequestLimiter(maxRequestsInFlight);
+		return requestLimiter;
+	}
+	
+	/**
+	 * 
+	 * @return acceptable queueing delay of requests in microseconds, 0 if load shedding is off
+	 */
+	public long getLoadSheddingTarget() {
+		return loadSheddingTarget;
+	}
+	
+	/**
+	 * Enables load shedding: if requests wait for thread of thread pool longer than target 
+	 * during the whole load shedding interval, server answers new requests with busy reply 
+	 * right away instead of queuing them. Client gets {@link ServerBusyException} and may retry
+	 * with another server, rather than wait for reply that would come too late. 
+	 * Default is 0 i.e. no load shedding
+	 * @param loadSheddingTarget acceptable queueing delay in microseconds, 0 turns load shedding off
+	 */
+	public void setLoadSheddingTarget(long loadSheddingTarget) {
+		this.loadSheddingTarget = loadSheddingTarget;
+		loadShedder = null;
+	}
+	
+	/**
+	 * 
+	 * @return time in milliseconds queueing delay may stay above target before requests are rejected
+	 */
+	public long getLoadSheddingInterval() {
+		return loadSheddingInterval;
+	}
+	
+	/**
+	 * sets time queueing delay may stay above target before requests are rejected. Rejecting 
+	 * lasts as long, then requests are let in to measure the delay again
+	 * @param loadSheddingInterval interval in milliseconds
+	 */
+	public void setLoadSheddingInterval(long loadSheddingInterval) {
+		this.loadSheddingInterval = loadSheddingInterval;
+		loadShedder = null;
+	}
+	
+	/**
+	 * returns load shedder shared by reactors of NioServer, null if load shedding is off
+	 */
+	LoadShedder getLoadShedder() {
+		if (loadShedder == null && loadSheddingTarget > 0)
+			loadShedder = new LoadShedder(TimeUnit.MICROSECONDS.toNanos(loadSheddingTarget), 
+					TimeUnit.MILLISECONDS.toNanos(loadSheddingInterval));
+		return loadShedder;
+	}
+	
+	/**
+	 * 
+	 * @return true if requests are to be processed by virtual thread per request
+	 */
+	public boolean isVirtualThreads() {
+		return virtualThreads;
+	}
+	
+	/**
+	 * Enables processing of each request by its own virtual thread instead of cached thread pool.
+	 * This suits message processors blocking for long time (e.g. database calls), as number of
+	 * platform threads stays bounded by number of cores no matter how many requests are blocked. 
+	 * Ignored if thread pool is set by setPool. On JVMs without virtual threads (prior to Java 21)
+	 * cached thread pool is used, see {@link #isVirtualThreadsSupported()}
+	 * @param virtualThreads true to use virtual threads
+	 */
+	public void setVirtualThreads(boolean virtualThreads) {
+		this.virtualThreads = virtualThreads;
+	}
+	
+	/**
+	 * 
+	 * @return number of workers of {@link AffinityExecutor}, 0 if affinity is off
+	 */
+	public int getAffinityWorkers() {
+		return affinityWorkers;
+	}
+	
+	/**
+	 * Makes NioServer execute requests by {@link AffinityExecutor}, which runs all requests of a
+	 * connection on the same worker thread. This keeps client context and retained message 
+	 * processor in cache of one core. Suits message processors that are fast and keep 
+	 * conversational state in client context. Ignored if thread pool is set by setPool
+	 * @param affinityWorkers number of worker threads, 0 turns affinity off
+	 */
+	public void setAffinityWorkers(int affinityWorkers) {
+		this.affinityWorkers = affinityWorkers;
+	}
+	
+	/**
+	 * 
+	 * @return queue length of affinity worker above which other workers steal from it
+	 */
+	public int getAffinityStealThreshold() {
+		return affinityStealThreshold;
+	}
+	
+	/**
+	 * sets queue length of affinity worker above which idle workers take its tasks, 
+	 * giving up affinity for the sake of latency
+	 * @param affinityStealThreshold queue length, 0 means idle workers steal any queued task
+	 */
+	public void setAffinityStealThreshold(int affinityStealThreshold) {
+		this.affinityStealThreshold = affinityStealThreshold;
+	}
+	
+	/**
+	 * 
+	 * @return true if requests are executed by reactor thread, i.e. message processor class or
+	 * message processor factory implements {@link NonBlocking} 
+	 */
+	public boolean isInlineExecution() {
+		return getProcessorFactory() instanceof NonBlocking || 
+				(defaultProcessorFactory && messageProcessorClass != null && 
+				NonBlocking.class.isAssignableFrom(messageProcessorClass));
+	}
+	
+	/**
+	 * 
+	 * @return time budget of request executed by reactor thread, in microseconds
+	 */
+	public long getInlineExecutionBudget() {
+		return inlineExecutionBudget;
+	}
+	
+	/**
+	 * sets time budget of request executed by reactor thread. Reactor can't interrupt the call, 
+	 * but once a call exceeds the budget, requests are handed to thread pool from then on
+	 * @param inlineExecutionBudget time budget in microseconds
+	 */
+	public void setInlineExecutionBudget(long inlineExecutionBudget) {
+		this.inlineExecutionBudget = inlineExecutionBudget;
+	}
+	
+	/**
+	 * returns pool of direct buffers used for reading, decoding and encoding of messages. If none
+	 * set, pool with default settings is created
+	 * @return buffer pool shared by reactors and thread pool of NioServer
+	 */
+	public BufferPool getBufferPool() {
+		if (bufferPool == null)
+			bufferPool = new BufferPool();
+		return bufferPool;
+	}
+	
+	/**
+	 * returns counters shared by reactors of NioServer. Created on first call
+	 * @return statistics of NioServer
+	 */
+	public NioServerStatistics getStatistics() {
+		if (statistics == null)
+			statistics = new NioServerStatistics();
+		return statistics;
+	}
+	
+	/**
+	 * buffer pool setter, allows control of buffer sizes and amount of memory retained by
+	 * the pool. The pool counters can be used to monitor memory usage and detect leaks
+	 * @param bufferPool pool to use
+	 */
+	public void setBufferPool(BufferPool bufferPool) {
+		this.bufferPool = bufferPool;
+	}
 }
@@ -0,0 +1,141 @@
+/*
+ * (C) Copyright Boris Litvin 2014
+ * This file is part of NioServer library.
+ *
+ *  NioServer is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   NioServer is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with NioServer.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.blitvin.nioserver;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * NioServerStatistics holds counters of events inside NioServer, shared by all its reactors.
+ * Counters are updated by reactor and worker threads and can be read at any time, see 
+ * {@link NioServer#getStatistics()}
+ * @author blitvin
+ *
+ */
+public class NioServerStatistics {
+	private final LongAdder wakeups = new LongAdder();
+	private final LongAdder suppressedWakeups = new LongAdder();
+	private final LongAdder readPauses = new LongAdder();
+	private final LongAdder rejectedRequests = new LongAdder();
+	private final LongAdder expiredConnections = new LongAdder();
+	private final LongAdder timedOutRequests = new LongAdder();
+	private final LongAdder replyWrites = new LongAdder();
+	private final LongAdder repliesWritten = new LongAdder();
+	
+	void wakeup() {
+		wakeups.increment();
+	}
+	
+	void wakeupSuppressed() {
+		suppressedWakeups.increment();
+	}
+	
+	void readPaused() {
+		readPauses.increment();
+	}
+	
+	void requestRejected() {
+		rejectedRequests.increment();
+	}
+	
+	void connectionsExpired(int count) {
+		expiredConnections.add(count);
+	}
+	
+	void requestTimedOut() {
+		timedOutRequests.increment();
+	}
+	
+	void replyWrite() {
+		replyWrites.increment();
+	}
+	
+	void repliesWritten(int count) {
+		repliesWritten.add(count);
+	}
+	
+	/**
+	 * 
+	 * @return number of times reactor selector was woken up to handle reply or new connection
+	 */
+	public long getWakeups() {
+		return wakeups.sum();
+	}
+	
+	/**
+	 * 
+	 * @return number of wakeups skipped because reactor was not blocked in select
+	 */
+	public long getSuppressedWakeups() {
+		return suppressedWakeups.sum();
+	}
+	
+	/**
+	 * 
+	 * @return number of times reading from a connection was paused because limit of requests
+	 * in flight of the server was reached
+	 */
+	public long getReadPauses() {
+		return readPauses.sum();
+	}
+	
+	/**
+	 * 
+	 * @return number of requests answered by busy reply without execution because server
+	 * was overloaded
+	 */
+	public long getRejectedRequests() {
+		return rejectedRequests.sum();
+	}
+	
+	/**
+	 * number of idle connections closed by expiration manager. The counter is cumulative, sampling
+	 * it periodically gives number of connections reaped per interval
+	 * @return number of expired connections
+	 */
+	public long getExpiredConnections() {
+		return expiredConnections.sum();
+	}
+	
+	/**
+	 * 
+	 * @return number of requests answered by timeout reply because they were not processed 
+	 * before their deadline
+	 */
+	public long getTimedOutRequests() {
+		return timedOutRequests.sum();
+	}
+	
+	/**
+	 * number of socket writes of replies issued by reactors, single gathering write of several
+	 * replies counts once. Together with {@link #getRepliesWritten()} shows how well replies 
+	 * are coalesced
+	 * @return number of reply writes
+	 */
+	public long getReplyWrites() {
+		return replyWrites.sum();
+	}
+	
+	/**
+	 * 
+	 * @return number of replies completely written by reactors
+	 */
+	public long getRepliesWritten() {
+		return repliesWritten.sum();
+	}
+}
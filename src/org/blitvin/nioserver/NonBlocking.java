@@ -0,0 +1,33 @@
+/*
+ * (C) Copyright Boris Litvin 2014
+ * This file is part of NioServer library.
+ *
+ *  NioServer is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   NioServer is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with NioServer.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.blitvin.nioserver;
+
+/**
+ * Marker interface for {@link MessageProcessor} or {@link MessageProcessorFactory} whose 
+ * processData never blocks and completes fast, e.g. in-memory lookup. Requests of such processors
+ * are executed by reactor thread right after decoding, and replies are written in the same 
+ * iteration of event loop, saving hand-off to thread pool and back. If a call runs longer than 
+ * inline execution budget (see {@link NioServerInitializer#setInlineExecutionBudget(long)}), 
+ * the reactor falls back to thread pool for subsequent requests
+ * @author blitvin
+ *
+ */
+public interface NonBlocking {
+
+}
@@ -0,0 +1,1122 @@
+/*
+ * (C) Copyright Boris Litvin 2014
+ * This file is part of NioServer library.
+ *
+ *  NioServer is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   NioServer is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with NioServer.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.blitvin.nioserver;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.channels.spi.SelectorProvider;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Reactor is the event loop driving network I/O of set of connections. It owns selector,
+ * read buffer, per channel state and queue of replies coming back from thread pool, so
+ * no state is shared between reactors except thread pool and factories.
+ * In default configuration NioServer has single reactor that also accepts connections. In
+ * multi-reactor mode NioServer accepts connections itself and hands each new channel to
+ * one of reactors by {@link #assign(SocketChannel)}
+ * Connection keeps being read while its request is processed, so client can pipeline requests.
+ * Pipelined requests are queued per connection and executed one by one, replies are written
+ * in order of requests. Reading is paused when number of unanswered requests reaches the limit.
+ * Requests of connection using multiplexed protocol are processed concurrently, and replies are 
+ * written in order of completion.
+ * Requests of {@link NonBlocking} message processors are executed by the reactor thread itself,
+ * and their replies are written before the next select
+ * @author blitvin
+ *
+ * @param <CC> client context class
+ */
+class Reactor<CC extends ClientContext> implements Runnable {
+
+	private static final int MAX_INLINE_OVERRUNS = 3;
+	private static final int REPLY_QUEUE_CAPACITY = 4096;
+	// resolution of request deadlines in msecs
+	private static final int DEADLINE_TICK = 10;
+	// deadlines up to this many msecs don't make requests go round the wheel
+	private static final int DEADLINE_WHEEL_SPAN = 1000;
+	// JDK copies whole remaining part of heap buffer to temporary direct buffer on each write,
+	// so large reply body is written in chunks not to copy it again after every partial write
+	private static final int BODY_WRITE_CHUNK = 256 * 1024;
+	// replies of a connection coalesced into single gathering write, well below IOV_MAX
+	private static final int MAX_COALESCED_REPLIES = 64;
+
+	// The channel on which we'll accept connections, null if connections are assigned by acceptor
+	private final ServerSocketChannel serverChannel;
+	// The selector we'll be monitoring
+	private final Selector selector;
+	// The buffer into which we'll read data when it's available
+	private final int readBufferSize;
+	private ByteBuffer readBuffer;
+	// pool of direct buffers shared by reactors and thread pool
+	private final BufferPool bufferPool;
+
+	private final ExpirationManager<SocketChannel> expirationMgr;
+	// deadlines of requests handed to thread pool
+	private final TimingWheelExpirationManager<TimedTask> requestDeadlines;
+	private final int requestTimeout; // msecs, 0 if requests have no deadline by default
+	// server context of the channel is attached to its selection key, and client context 
+	// refers back to server context, so no lookups are needed during request processing 
+	private int workingContexts = 0; // number of requests being processed by thread pool
+	// lock free, so worker (possibly virtual) thread handing over reply never blocks
+	private final MpscArrayQueue<CC> replyQueue;
+	// channels handed over by acceptor and not yet registered with the selector
+	private final ConcurrentLinkedQueue<SocketChannel> assignedChannels;
+	// true unless reactor is about to block in select, so others know whether to wake it up
+	private final AtomicBoolean awake = new AtomicBoolean(true);
+	private final NioServerStatistics statistics;
+	// limit of requests in flight of the whole server, connections not read because of it
+	// are resumed when limiter notifies that requests were answered
+	private final RequestLimiter requestLimiter;
+	private final ArrayDeque<ServerContext<CC>> pausedConnections = new ArrayDeque<>();
+	// null if load shedding is off
+	private final LoadShedder loadShedder;
+	private final AtomicBoolean resumeRequested = new AtomicBoolean();
+	private final AtomicInteger connections;
+	private final ExecutorService threadPool;
+	private final MessageProcessorFactory<CC> mpFactory;
+	private final ClientContextFactory<CC> ccFactory;
+	private final ServerSideProtocolFactory protFactory;
+	private final ErrorListener errorListener;
+	private final boolean writeFromWorker;
+	private final boolean zeroCopyDecoding;
+	private final int maxPipelinedRequests;
+	// requests of NonBlocking processors are executed by reactor thread until one exceeds the budget
+	private boolean inlineExecution;
+	private final long inlineExecutionBudget; // nanoseconds
+	private int inlineOverruns = 0;
+	// connections with replies produced by reactor thread, written before next select
+	private final ArrayDeque<CC> inlineReplies = new ArrayDeque<>();
+	// buffers of replies written by single gathering write
+	private final ByteBuffer[] gather = new ByteBuffer[MAX_COALESCED_REPLIES + 1];
+	private final int gatheringThreshold;
+
+	private boolean shutdownRequestd = false;
+
+	/**
+	 * @param initializer settings of the server
+	 * @param threadPool thread pool shared by all reactors of the server
+	 * @param serverChannel channel to accept connections from, or null if connections are
+	 * assigned by acceptor
+	 * @throws IOException
+	 */
+	Reactor(NioServerInitializer<CC, ?> initializer, ExecutorService threadPool,
+			ServerSocketChannel serverChannel) throws IOException {
+		this.threadPool = threadPool;
+		this.serverChannel = serverChannel;
+		bufferPool = initializer.getBufferPool();
+		statistics = initializer.getStatistics();
+		requestLimiter = initializer.getRequestLimiter();
+		loadShedder = initializer.getLoadShedder();
+		readBufferSize = initializer.getBufferSize();
+		replyQueue = new MpscArrayQueue<>(REPLY_QUEUE_CAPACITY);
+		assignedChannels = new ConcurrentLinkedQueue<>();
+		connections = new AtomicInteger();
+
+		mpFactory = initializer.getProcessorFactory();
+		ccFactory = initializer.getContextFactory();
+		protFactory = initializer.getProtocolFactory();
+		expirationMgr = initializer.getExpirationManagerFactory().newInstance();
+		requestTimeout = initializer.getRequestTimeout();
+		requestDeadlines = new TimingWheelExpirationManager<>(Math.max(requestTimeout, DEADLINE_WHEEL_SPAN), 
+				DEADLINE_TICK);
+		errorListener = initializer.getErrorListener();
+		writeFromWorker = initializer.isWriteFromWorker();
+		zeroCopyDecoding = initializer.isZeroCopyDecoding();
+		gatheringThreshold = initializer.getGatheringThreshold();
+		maxPipelinedRequests = initializer.getMaxPipelinedRequests();
+		inlineExecution = initializer.isInlineExecution();
+		inlineExecutionBudget = TimeUnit.MICROSECONDS.toNanos(initializer.getInlineExecutionBudget());
+		selector = SelectorProvider.provider().openSelector();
+		if (serverChannel != null) {
+			try {
+				serverChannel.register(selector, SelectionKey.OP_ACCEPT);
+			} catch (IOException | RuntimeException e) {
+				selector.close();
+				throw e;
+			}
+		}
+		readBuffer = bufferPool.acquire(readBufferSize);
+		requestLimiter.register(this);
+	}
+
+	/**
+	 * releases resources of reactor that is not started, e.g. when other reactors of the server
+	 * fail to start. Server channel of the reactor is closed as well
+	 */
+	void close() {
+		requestLimiter.unregister(this);
+		try {
+			if (serverChannel != null)
+				serverChannel.close();
+			selector.close();
+		} catch (IOException e) {
+			// nothing to do about it, the reactor is not used anymore
+		}
+		bufferPool.release(readBuffer);
+	}
+
+	@Override
+	public void run() {
+		expirationMgr.start();
+		while (true) {
+			try {
+				// Wait for an event one of the registered channels
+				awake.set(false);
+				if (replyQueue.isEmpty() && assignedChannels.isEmpty() && !resumeRequested.get())
+					// wake up in time to close idle connections and time out requests even if there 
+					// is no traffic
+					selector.select(selectTimeout());
+				else
+					selector.selectNow();
+				awake.set(true);
+				// expiration manager is advanced here rather than by thread of its own
+				closeExpiredConnections();
+				timeOutRequests();
+				if (registerOutboundDataAndCheckShouldExit() && !shutdownRequestd) {
+					expirationMgr.stop();
+					shutdownRequestd = true;
+					stopReading();
+				}
+				registerAssignedChannels();
+				if (resumeRequested.getAndSet(false))
+					resumePausedConnections();
+				// Iterate over the set of keys for which events are available
+				Iterator<SelectionKey> selectedKeys = selector.selectedKeys().iterator();
+				while (selectedKeys.hasNext()) {
+					SelectionKey key =  selectedKeys.next();
+					selectedKeys.remove();
+
+					if (!key.isValid()) {
+						continue;
+					}
+
+					// Check what event is available and deal with it
+					if (key.isAcceptable() && !shutdownRequestd) {
+						accept(key);
+					} else if (key.isReadable() && !shutdownRequestd) {
+						read(key);
+					} else if (key.isWritable()) {
+						write(key);
+					}
+				}
+				writeInlineReplies();
+				if (shutdownRequestd && workingContexts == 0) {
+					for(SelectionKey key :new ArrayList<>(selector.keys())){
+						if (key.attachment() != null)
+							closeConnection(key);
+					}
+					if (serverChannel != null)
+						serverChannel.close();
+					selector.close();
+					bufferPool.release(readBuffer);
+					requestLimiter.unregister(this);
+					return;
+				}
+			} catch (Exception e) {
+				if (errorListener != null)
+					errorListener.notifyException(e);
+			}
+		}
+	}
+
+	/**
+	 * hands over newly accepted channel to the reactor. Called by acceptor thread
+	 * @param channel non-blocking channel of accepted connection
+	 */
+	void assign(SocketChannel channel) {
+		connections.incrementAndGet();
+		assignedChannels.add(channel);
+		wakeup();
+	}
+
+	/**
+	 *
+	 * @return number of connections currently served by the reactor
+	 */
+	int getConnectionCount() {
+		return connections.get();
+	}
+
+	/**
+	 * requests shut down of the reactor, see {@link NioServer#shutdown()}
+	 */
+	void shutdown() {
+		replyQueue.add(ccFactory.newInstance());// possible race , if newInstance is not threadsafe
+		wakeup();
+	}
+
+	/**
+	 * 
+	 * @return true if ClientRequestRunner should try to write reply before handing it over
+	 */
+	boolean isWriteFromWorker() {
+		return writeFromWorker;
+	}
+
+	/**
+	 * writes as much of reply as socket accepts without blocking. Body of the reply, if any, 
+	 * is written after data by single gathering write. File region, if any, is transferred
+	 * once data is written
+	 * @param channel channel to write to
+	 * @param data encoded reply or its header
+	 * @param body reply array following the header, null if none
+	 * @param region file region following the header, null if none
+	 * @param gather array of at least two elements used for gathering write, left empty
+	 * @return true if the reply is written completely
+	 * @throws IOException
+	 */
+	static boolean write(SocketChannel channel, ByteBuffer data, ByteBuffer body, FileRegion region, 
+			ByteBuffer[] gather) throws IOException {
+		if (region != null) {
+			if (data.hasRemaining())
+				channel.write(data);
+			return !data.hasRemaining() && region.transferTo(channel);
+		}
+		if (body == null) {
+			if (data.hasRemaining())
+				channel.write(data);
+			return !data.hasRemaining();
+		}
+		int limit = body.limit();
+		gather[0] = data;
+		gather[1] = body;
+		try {
+			while(data.hasRemaining() || body.hasRemaining()) {
+				if (!body.isDirect())
+					body.limit(Math.min(limit, body.position() + BODY_WRITE_CHUNK));
+				channel.write(gather, 0, 2);
+				if (data.hasRemaining() || body.hasRemaining())
+					break; // socket buffer is full
+				body.limit(limit);
+			}
+		} finally {
+			body.limit(limit);
+			gather[0] = null;
+			gather[1] = null;
+		}
+		return !data.hasRemaining() && !body.hasRemaining();
+	}
+
+	/**
+	 * called by ClientRequestRunner upon completion of request processing
+	 * @param context client context with encoded reply
+	 */
+	void replyReady(CC context) {
+		replyQueue.add(context);
+		wakeup();
+	}
+
+	/**
+	 * called by request limiter when requests in flight drop below the limit
+	 */
+	void resumeReading() {
+		resumeRequested.set(true);
+		wakeup();
+	}
+
+	/*
+	 * wakes the selector up only if reactor may be blocked in select. Reactor clears the flag
+	 * before it checks the queues and selects, so work queued by a thread that found the flag set
+	 * is either seen by the check or is covered by wakeup of another thread
+	 */
+	private void wakeup() {
+		if (!awake.getAndSet(true)) {
+			selector.wakeup();
+			statistics.wakeup();
+		} else
+			statistics.wakeupSuppressed();
+	}
+
+	@SuppressWarnings("unchecked")
+	private void write(SelectionKey key) throws IOException {
+		ServerContext<CC> context = (ServerContext<CC>) key.attachment();
+		if (context.multiplexed)
+			flushMultiplexed(context);
+		else
+			flush(context);
+	}
+
+	/*
+	 * on shutdown connections are closed as soon as replies to requests already received
+	 * are sent
+	 */
+	@SuppressWarnings("unchecked")
+	private void stopReading() {
+		for(SelectionKey key : selector.keys()) {
+			ServerContext<CC> context = (ServerContext<CC>) key.attachment();
+			if (context != null && key.isValid()) {
+				context.closeRequested = true;
+				updateInterest(context);
+			}
+		}
+	}
+
+	private boolean canAcceptRequest(ServerContext<CC> context) {
+		return !context.closeRequested && 
+				context.pendingRequests.size() + context.inFlight < maxPipelinedRequests;
+	}
+
+	private void updateInterest(ServerContext<CC> context) {
+		int ops = 0;
+		if (canAcceptRequest(context)) {
+			if (!context.readPaused && requestLimiter.isExhausted())
+				pauseReading(context);
+			if (!context.readPaused)
+				ops |= SelectionKey.OP_READ;
+		}
+		if (context.writePending)
+			ops |= SelectionKey.OP_WRITE;
+		context.key.interestOps(ops);
+	}
+
+	/*
+	 * stops reading from the connection until requests in flight of the server drop below the
+	 * limit, unread data stays in socket buffers and TCP flow control pushes back on client
+	 */
+	private void pauseReading(ServerContext<CC> context) {
+		context.readPaused = true;
+		pausedConnections.add(context);
+		statistics.readPaused();
+	}
+
+	private void resumePausedConnections() throws IOException {
+		// connections paused again during the loop wait for the next notification
+		for(int i = pausedConnections.size(); i > 0; --i) {
+			ServerContext<CC> context = pausedConnections.poll();
+			context.readPaused = false;
+			if (!context.closed)
+				processInbound(context); // decodes requests read before the pause, updates interest
+		}
+	}
+
+	/*
+	 * writes as much of pending reply as socket accepts without blocking. If the reply is written
+	 * completely, proceeds with next pipelined request of the connection, otherwise
+	 * waits for OP_WRITE. If next request is to be executed by reactor thread, the reply is
+	 * held back and written later together with replies of following requests
+	 */
+	private void flush(ServerContext<CC> context) throws IOException {
+		if (context.requestTimedOut) {
+			flushTimeoutReply(context);
+			return;
+		}
+		if (canHoldReply(context)) {
+			holdReply(context);
+			dispatchNext(context);
+			return;
+		}
+		SelectionKey key = context.key;
+		try {
+			context.writePending = !writeReply(context);
+		} catch (IOException e) {
+			// peer is gone while request was processed
+			context.writePending = false;
+			closeConnection(key);
+			abandon(context);
+			return;
+		}
+		if (context.writePending) {
+			updateInterest(context);
+			return;
+		}
+		finishRequest(context);
+		if (!dispatchNext(context)) {
+			if (context.closeRequested) {
+				closeConnection(key);
+				return;
+			}
+			context.expirationManagerHint = expirationMgr.add(context.channel);
+		}
+		processInbound(context); // decode requests held back by pipeline limit
+	}
+
+	private boolean canHoldReply(ServerContext<CC> context) {
+		return inlineExecution && !context.writePending && !context.pendingRequests.isEmpty()
+				&& context.getClientContext().outboundBody == null 
+				&& context.getClientContext().outboundRegion == null
+				&& (context.unsentReplies == null || context.unsentReplies.size() < MAX_COALESCED_REPLIES - 1);
+	}
+
+	/*
+	 * request of held back reply is done, but it stays in flight until the reply is written
+	 */
+	private void holdReply(ServerContext<CC> context) {
+		if (context.unsentReplies == null)
+			context.unsentReplies = new ArrayDeque<>();
+		context.unsentReplies.add(context.getClientContext().outboundData);
+		context.getClientContext().outboundData = null;
+		context.protocol.requestProcessed(context.currentRequest);
+		context.currentRequest = null;
+	}
+
+	/*
+	 * writes held back replies and reply of current request, those without body or file region
+	 * by single gathering write
+	 * @return true if all of them are written completely
+	 */
+	private boolean writeReply(ServerContext<CC> context) throws IOException {
+		CC clientContext = context.getClientContext();
+		ArrayDeque<ByteBuffer> unsent = context.unsentReplies;
+		boolean whole = clientContext.outboundBody == null && clientContext.outboundRegion == null;
+		if (unsent != null && !unsent.isEmpty()) {
+			int count = 0;
+			for(ByteBuffer reply: unsent)
+				gather[count++] = reply;
+			if (whole)
+				gather[count++] = clientContext.outboundData;
+			writeGathered(context.channel, count);
+			ByteBuffer reply;
+			int written = 0;
+			while((reply = unsent.peek()) != null && !reply.hasRemaining()) {
+				unsent.poll();
+				bufferPool.release(reply);
+				written++;
+				context.inFlight--;
+				workingContexts--;
+				requestLimiter.release(1);
+			}
+			statistics.repliesWritten(written);
+			if (!unsent.isEmpty())
+				return false;
+			if (whole) {
+				if (clientContext.outboundData.hasRemaining())
+					return false;
+				statistics.repliesWritten(1);
+				return true;
+			}
+		}
+		statistics.replyWrite();
+		if (!write(context.channel, clientContext.outboundData, clientContext.outboundBody, 
+				clientContext.outboundRegion, gather))
+			return false;
+		statistics.repliesWritten(1);
+		return true;
+	}
+
+	private void writeGathered(SocketChannel channel, int count) throws IOException {
+		statistics.replyWrite();
+		try {
+			channel.write(gather, 0, count);
+		} finally {
+			Arrays.fill(gather, 0, count, null);
+		}
+	}
+
+	private void finishRequest(ServerContext<CC> context) {
+		bufferPool.release(context.getClientContext().outboundData);
+		context.getClientContext().outboundData = null;
+		context.getClientContext().outboundBody = null;
+		closeRegion(context.getClientContext());
+		context.protocol.requestProcessed(context.currentRequest);
+		context.currentRequest = null;
+		context.inFlight--;
+		if (!context.requestTimedOut) { // released when the request timed out
+			workingContexts--;
+			requestLimiter.release(1);
+		}
+	}
+
+	private static void closeRegion(ClientContext clientContext) {
+		if (clientContext.outboundRegion != null) {
+			clientContext.outboundRegion.close();
+			clientContext.outboundRegion = null;
+		}
+	}
+
+	/*
+	 * connection was closed while its request was processed
+	 */
+	private void abandon(ServerContext<CC> context) {
+		finishRequest(context);
+		releaseResources(context);
+	}
+
+	/*
+	 * takes calls completed by worker threads and writes their replies in order of completion
+	 */
+	private void flushMultiplexed(ServerContext<CC> context) throws IOException {
+		boolean busy = context.inFlight > 0; // same connection may be notified several times
+		MultiplexedRequestRunner<CC> call;
+		while((call = context.completedCalls.poll()) != null) {
+			requestDeadlines.remove(call, call.deadlineHint);
+			if (call.isTimedOut()) {
+				// client has got timeout reply, the call just gives back its request
+				context.protocol.requestProcessed(call.request);
+				call.releaseReply(bufferPool);
+				context.inFlight--;
+				continue;
+			}
+			if (mpFactory.cacheInstances() && call.mp != null) // rejected call has no processor
+				mpFactory.reclaimUnused(call.mp);
+			context.protocol.requestProcessed(call.request);
+			context.replies.add(call);
+		}
+		if (context.closed) {
+			abandonMultiplexed(context, busy);
+			return;
+		}
+		while(!context.replies.isEmpty()) {
+			boolean complete;
+			try {
+				complete = writeReplies(context);
+			} catch (IOException e) {
+				context.writePending = false;
+				closeConnection(context.key);
+				abandonMultiplexed(context, busy);
+				return;
+			}
+			int written = 0;
+			while((call = context.replies.peek()) != null && call.isReplyWritten()) {
+				context.replies.poll();
+				call.releaseReply(bufferPool);
+				written++;
+				context.inFlight--;
+				workingContexts--;
+				requestLimiter.release(1);
+			}
+			statistics.repliesWritten(written);
+			if (!complete)
+				break; // socket buffer is full
+		}
+		context.writePending = !context.replies.isEmpty();
+		if (busy && context.inFlight == 0) {
+			if (context.closeRequested) {
+				closeConnection(context.key);
+				return;
+			}
+			context.expirationManagerHint = expirationMgr.add(context.channel);
+		}
+		processInbound(context); // decode requests held back by the limit
+	}
+
+	/*
+	 * writes replies queued on multiplexed connection. Replies are coalesced into single
+	 * gathering write up to the first one with body or file region, which is written by write
+	 * of its own
+	 * @return true if all the replies the call has written are written completely
+	 */
+	private boolean writeReplies(ServerContext<CC> context) throws IOException {
+		MultiplexedRequestRunner<CC> first = context.replies.peek();
+		if (first.replyBody != null || first.replyRegion != null) {
+			statistics.replyWrite();
+			return write(context.channel, first.reply, first.replyBody, first.replyRegion, gather);
+		}
+		int count = 0;
+		for(MultiplexedRequestRunner<CC> call: context.replies) {
+			if (call.replyBody != null || call.replyRegion != null || count == MAX_COALESCED_REPLIES)
+				break;
+			gather[count++] = call.reply;
+		}
+		ByteBuffer last = gather[count - 1];
+		writeGathered(context.channel, count);
+		return !last.hasRemaining();
+	}
+
+	/*
+	 * drops replies of closed multiplexed connection, resources are released when
+	 * all calls are completed
+	 */
+	private void abandonMultiplexed(ServerContext<CC> context, boolean busy) {
+		MultiplexedRequestRunner<CC> call;
+		while((call = context.replies.poll()) != null) {
+			call.releaseReply(bufferPool);
+			context.inFlight--;
+			workingContexts--;
+			requestLimiter.release(1);
+		}
+		if (busy && context.inFlight == 0)
+			releaseResources(context);
+	}
+	/**
+	 *
+	 * @return true if server is to shut down
+	 */
+	private boolean registerOutboundDataAndCheckShouldExit() throws IOException {
+		CC reply = null;
+		boolean shouldExit = false;
+		while((reply = replyQueue.poll()) != null) {
+			if (reply.serverContext == null) {
+				shouldExit = true;
+				continue;
+			}
+			registerOutboundData(reply);
+		}
+
+		return shouldExit;
+	}
+
+	/*
+	 * replies of inline executed requests may cause execution of further pipelined requests,
+	 * so the queue is drained until empty
+	 */
+	private void writeInlineReplies() throws IOException {
+		CC reply;
+		while((reply = inlineReplies.poll()) != null)
+			registerOutboundData(reply);
+	}
+
+	private void registerOutboundData(CC reply) throws IOException {
+		@SuppressWarnings("unchecked")
+		ServerContext<CC> serverContext = reply.serverContext;
+		if (serverContext.multiplexed) {
+			// the reply may have been written already along with earlier ones
+			flushMultiplexed(serverContext);
+			return;
+		}
+		ClientRequestRunner<CC> task = serverContext.currentTask;
+		serverContext.currentTask = null;
+		if (task != null) {
+			requestDeadlines.remove(task, task.deadlineHint);
+			bufferPool.release(task.reply); // reply of timed out request
+		}
+		if (serverContext.closed) {
+			abandon(serverContext);
+			return;
+		}
+		if (serverContext.requestTimedOut) {
+			// timeout reply is being written, connection is closed afterwards
+			serverContext.protocol.requestProcessed(serverContext.currentRequest);
+			serverContext.currentRequest = null;
+			serverContext.inFlight--;
+			return;
+		}
+		if (!reply.shouldRetainMP() || reply.isSessionEnded()) {
+			@SuppressWarnings("unchecked")
+			MessageProcessor<CC> mp = reply.unlinkMessageProcessor();
+			if (mpFactory.cacheInstances() && mp != null){ // rejected request has no processor
+				mpFactory.reclaimUnused(mp);
+			}
+		}
+		// most replies fit into socket send buffer, so try to write right away and
+		// wait for OP_WRITE only if the write is partial
+		flush(serverContext);
+	}
+
+	private void registerAssignedChannels() throws IOException {
+		SocketChannel channel;
+		while((channel = assignedChannels.poll()) != null) {
+			if (shutdownRequestd) {
+				connections.decrementAndGet();
+				channel.close();
+				continue;
+			}
+			register(channel);
+		}
+	}
+
+	private void accept(SelectionKey key) throws IOException {
+		// For an accept to be pending the channel must be a server socket channel.
+		ServerSocketChannel serverSocketChannel = (ServerSocketChannel) key.channel();
+
+		// Accept the connection and make it non-blocking
+		SocketChannel socketChannel = serverSocketChannel.accept();
+		if (socketChannel == null)
+			return;
+		socketChannel.configureBlocking(false);
+		connections.incrementAndGet();
+		register(socketChannel);
+	}
+
+	private void register(SocketChannel socketChannel) throws IOException {
+		ServerSideProtocol protocol = protFactory.newInstance();
+		if (protocol instanceof LVProtocol) {
+			((LVProtocol) protocol).setBufferPool(bufferPool);
+			((LVProtocol) protocol).setZeroCopy(zeroCopyDecoding);
+			((LVProtocol) protocol).setGatheringThreshold(gatheringThreshold);
+		}
+		ServerContext<CC> serverContext = new ServerContext<CC>(protocol,
+				socketChannel,ccFactory.newInstance());
+
+		serverContext.expirationManagerHint = expirationMgr.add(socketChannel);
+
+		// Register the new SocketChannel with our Selector, indicating
+		// we'd like to be notified when there's data waiting to be read
+		serverContext.key = socketChannel.register(this.selector, SelectionKey.OP_READ, serverContext);
+	}
+
+	private void closeExpiredConnections() throws IOException {
+		Collection<SocketChannel> expired = expirationMgr.getExpired();
+		if (!expired.isEmpty()) {
+			int closed = 0;
+			for(SocketChannel expiredChannel: expired) {
+				SelectionKey expiredKey = expiredChannel.keyFor(selector);
+				if (expiredKey != null) {
+					closeConnection(expiredKey);
+					closed++;
+				}
+			}
+			statistics.connectionsExpired(closed);
+		}
+	}
+
+	@SuppressWarnings("unchecked")
+	private void closeConnection(SelectionKey key) throws IOException {
+		key.cancel();
+		key.channel().close();
+		ServerContext<CC> tmp = (ServerContext<CC>) key.attach(null);
+		if (tmp == null)
+			return;
+		connections.decrementAndGet();
+		tmp.closed = true;
+		if (tmp.writePending && !tmp.requestTimedOut) {
+			// no OP_WRITE is coming for replies waiting for it
+			tmp.writePending = false;
+			if (tmp.multiplexed)
+				abandonMultiplexed(tmp, true);
+			else
+				abandon(tmp);
+			return;
+		}
+		if (tmp.inFlight > 0)
+			return; // resources are in use by worker thread, released when reply comes back
+		expirationMgr.remove(tmp.channel, tmp.expirationManagerHint);
+		releaseResources(tmp);
+	}
+
+	@SuppressWarnings("unchecked")
+	private void releaseResources(ServerContext<CC> context) {
+		bufferPool.release(context.getClientContext().outboundData);
+		context.getClientContext().outboundData = null;
+		context.getClientContext().outboundBody = null;
+		closeRegion(context.getClientContext());
+		ByteBuffer reply;
+		while(context.unsentReplies != null && (reply = context.unsentReplies.poll()) != null) {
+			bufferPool.release(reply);
+			context.inFlight--;
+			workingContexts--;
+			requestLimiter.release(1);
+		}
+		requestLimiter.release(context.pendingRequests.size());
+		context.pendingRequests.clear();
+		if (context.protocol instanceof LVProtocol)
+			((LVProtocol) context.protocol).releaseBuffers();
+		if (context.getClientContext().shouldRetainMP()) {
+			mpFactory.reclaimUnused(context.getClientContext().unlinkMessageProcessor());
+		}
+	}
+
+	@SuppressWarnings("unchecked")
+	private void read(SelectionKey key) throws IOException {
+		SocketChannel socketChannel = (SocketChannel) key.channel();
+		ServerContext<CC> context = (ServerContext<CC>) key.attachment();
+		if (requestLimiter.isExhausted()) {
+			// data is left in socket buffer until requests in flight drop below the limit
+			updateInterest(context);
+			return;
+		}
+
+
+		readBuffer.clear();
+
+		// Attempt to read off the channel
+		int numRead;
+		try {
+			numRead = socketChannel.read(readBuffer);
+		} catch (IOException e) {
+			// The remote forcibly closed the connection, cancel
+			// the selection key and close the channel.
+			closeConnection(key);
+			return;
+		}
+
+		if (numRead == -1) {
+			// Remote entity shut the socket down cleanly. Do the
+			// same from our end and cancel the channel.
+			closeConnection(key);
+			return;
+		}
+
+		readBuffer.flip();
+		boolean complete;
+		try {
+			complete = context.protocol.addPart(readBuffer);
+		} catch (IllegalArgumentException e) {
+			malformedMessage(context, e);
+			return;
+		}
+		if (zeroCopyDecoding && context.protocol instanceof LVProtocol 
+				&& ((LVProtocol) context.protocol).retainedInput()) {
+			// the request is a view of read buffer, which now belongs to the connection
+			readBuffer = bufferPool.acquire(readBufferSize);
+		}
+		if (complete) {
+			// has complete message
+			processInbound(context);
+		}
+
+	}
+
+	/*
+	 * decodes complete messages up to pipeline limit, handles service messages and
+	 * dispatches requests to thread pool: first pending one if connection is idle, or all of
+	 * them if connection is multiplexed
+	 */
+	private void processInbound(ServerContext<CC> context) throws IOException {
+		ServerSideProtocol protocol = context.protocol;
+		try {
+			while (canAcceptRequest(context) && protocol.hasCompleteMessage()) {
+				int serviceMessage = protocol.getServiceMessage();
+				if (serviceMessage == ClientServerProtocol.CLOSE_NOTIFICATION) {
+					protocol.inboundMessageHasBeenConsumed();
+					context.closeRequested = true;
+				} else if (serviceMessage == ClientServerProtocol.KEEPALIVE_NOTIFICATION) {
+					if (context.inFlight == 0) // busy connection is not subject to expiration
+						context.expirationManagerHint = expirationMgr.touch(context.channel, context.expirationManagerHint);
+					protocol.inboundMessageHasBeenConsumed();
+				} else if (serviceMessage == ClientServerProtocol.REQUEST_TIMEOUT_NOTIFICATION) {
+					context.requestTimeout = ByteBuffer.wrap(protocol.getRequest()).getInt();
+					protocol.inboundMessageHasBeenConsumed();
+				} else {
+					if (!requestLimiter.tryAcquire()) {
+						// the request stays in protocol until reading is resumed
+						if (!context.readPaused)
+							pauseReading(context);
+						break;
+					}
+					try {
+						context.pendingRequests.add(protocol.takeRequest());
+					} catch (IllegalArgumentException e) {
+						requestLimiter.release(1);
+						throw e;
+					}
+				}
+			}
+		} catch (IllegalArgumentException e) {
+			malformedMessage(context, e);
+			return;
+		}
+		if (context.inFlight == 0) {
+			if (!context.pendingRequests.isEmpty()) {
+				expirationMgr.remove(context.channel, context.expirationManagerHint);
+				dispatchNext(context);
+			} else if (context.closeRequested) {
+				closeConnection(context.key);
+				return;
+			}
+		}
+		if (context.multiplexed)
+			while(dispatchNext(context))
+				;
+		updateInterest(context);
+	}
+
+	/*
+	 * protocol can't recover from malformed message, so the connection is closed
+	 */
+	private void malformedMessage(ServerContext<CC> context, IllegalArgumentException e) throws IOException {
+		closeConnection(context.key);
+		if (errorListener != null)
+			errorListener.notifyException(e);
+	}
+
+	private boolean dispatchNext(ServerContext<CC> context) {
+		ByteBuffer request = context.pendingRequests.poll();
+		if (request == null)
+			return false;
+		context.inFlight++;
+		workingContexts++;
+		if (!inlineExecution && loadShedder != null && loadShedder.isShedding()) {
+			reject(context, request);
+			return true;
+		}
+		if (context.multiplexed) {
+			int requestId = ((MultiplexedServerProtocol) context.protocol).readRequestId(request);
+			MultiplexedRequestRunner<CC> runner = new MultiplexedRequestRunner<CC>(this, context, 
+					mpFactory.newInstance(), request, requestId);
+			if (inlineExecution) {
+				long start = System.nanoTime();
+				runner.process();
+				checkInlineBudget(start);
+				inlineReplies.add(context.getClientContext());
+			} else {
+				runner.dispatchTime = dispatchTime();
+				watchDeadline(context, runner);
+				threadPool.execute(runner);
+			}
+		} else {
+			context.currentRequest = request;
+			proceedWithMessage(context, request);
+		}
+		return true;
+	}
+
+	private void proceedWithMessage(ServerContext<CC> context, ByteBuffer request){
+		CC c = context.getClientContext();
+		if (!c.shouldRetainMP() || c.mp == null) {
+			c.setMessageProcessor(mpFactory.newInstance());
+		}
+		if (inlineExecution) {
+			long start = System.nanoTime();
+			c.setOutboundData(ClientRequestRunner.process(c, context.getProtocol(), request));
+			checkInlineBudget(start);
+			inlineReplies.add(c);
+		} else {
+			ClientRequestRunner<CC> runner = new ClientRequestRunner<CC>(this, c, context.getProtocol(), 
+					request, dispatchTime());
+			if (watchDeadline(context, runner))
+				context.currentTask = runner;
+			threadPool.execute(runner);
+		}
+	}
+
+	/*
+	 * @return true if the request has deadline
+	 */
+	private boolean watchDeadline(ServerContext<CC> context, TimedTask task) {
+		int timeout = context.requestTimeout > 0 ? context.requestTimeout : requestTimeout;
+		if (timeout <= 0)
+			return false;
+		task.deadlineHint = requestDeadlines.add(task, timeout);
+		return true;
+	}
+
+	/*
+	 * answers requests not processed before their deadline with timeout reply. Worker thread 
+	 * still executing the request is interrupted, and the request is abandoned
+	 */
+	@SuppressWarnings("unchecked")
+	private void timeOutRequests() throws IOException {
+		Collection<TimedTask> expired = requestDeadlines.getExpired();
+		for(TimedTask task : expired) {
+			if (!task.timeOut())
+				continue; // completed meanwhile, reply is on its way
+			statistics.requestTimedOut();
+			if (task instanceof MultiplexedRequestRunner)
+				timeOutCall((MultiplexedRequestRunner<CC>) task);
+			else
+				timeOutRequest(((ClientRequestRunner<CC>) task).context.serverContext);
+		}
+	}
+
+	/*
+	 * business logic may still use client context, so the connection can't go on with next
+	 * request. Slot of the request is released right away, the connection is closed once the 
+	 * timeout reply is written, and its resources are released when the request comes back
+	 */
+	private void timeOutRequest(ServerContext<CC> context) throws IOException {
+		context.requestTimedOut = true;
+		workingContexts--;
+		requestLimiter.release(1);
+		if (context.closed)
+			return;
+		context.closeRequested = true;
+		context.getClientContext().setOutboundData(context.protocol.putTimeoutReply());
+		flushTimeoutReply(context);
+	}
+
+	private void flushTimeoutReply(ServerContext<CC> context) throws IOException {
+		ByteBuffer reply = context.getClientContext().outboundData;
+		try {
+			context.channel.write(reply);
+		} catch (IOException e) {
+			reply.position(reply.limit()); // peer is gone, nothing to write
+		}
+		context.writePending = reply.hasRemaining();
+		if (context.writePending) {
+			updateInterest(context);
+			return;
+		}
+		bufferPool.release(reply);
+		context.getClientContext().outboundData = null;
+		closeConnection(context.key);
+	}
+
+	/*
+	 * timeout reply is written as reply of separate call, the timed out call is counted in 
+	 * flight until it comes back and gives back its request
+	 */
+	private void timeOutCall(MultiplexedRequestRunner<CC> call) {
+		ServerContext<CC> context = call.serverContext;
+		context.inFlight++;
+		MultiplexedRequestRunner<CC> timeoutCall = new MultiplexedRequestRunner<CC>(this, context, 
+				null, null, call.requestId);
+		timeoutCall.reply = ((MultiplexedServerProtocol) context.protocol).encodeTimeoutReply(call.requestId);
+		context.completedCalls.add(timeoutCall);
+		inlineReplies.add(context.getClientContext());
+	}
+
+	/*
+	 * @return select timeout in msecs, 0 if nothing is due
+	 */
+	private long selectTimeout() {
+		long expiration = expirationMgr.getNextExpirationDelay();
+		long deadline = requestDeadlines.getNextExpirationDelay();
+		if (expiration == 0 || (deadline != 0 && deadline < expiration))
+			return deadline;
+		return expiration;
+	}
+
+	/*
+	 * answers the request with busy reply without touching thread pool, the reply is written
+	 * the same way as reply of request executed by reactor thread
+	 */
+	private void reject(ServerContext<CC> context, ByteBuffer request) {
+		statistics.requestRejected();
+		if (context.multiplexed) {
+			MultiplexedServerProtocol protocol = (MultiplexedServerProtocol) context.protocol;
+			int requestId = protocol.readRequestId(request);
+			MultiplexedRequestRunner<CC> runner = new MultiplexedRequestRunner<CC>(this, context, 
+					null, request, requestId);
+			runner.reply = protocol.encodeBusyReply(requestId);
+			context.completedCalls.add(runner);
+		} else {
+			context.currentRequest = request;
+			context.getClientContext().setOutboundData(context.protocol.putBusyReply());
+		}
+		inlineReplies.add(context.getClientContext());
+	}
+
+	/**
+	 * called by worker thread when it takes request handed to thread pool
+	 * @param dispatchTime time of the hand-off, by System.nanoTime()
+	 */
+	void requestStarted(long dispatchTime) {
+		loadShedder.observe(System.nanoTime() - dispatchTime);
+	}
+
+	/*
+	 * @return time stamp of hand-off of the request to thread pool if queueing delay is 
+	 * measured, 0 otherwise
+	 */
+	private long dispatchTime() {
+		return loadShedder == null ? 0 : System.nanoTime();
+	}
+
+	/*
+	 * call exceeding the budget delays all connections of the reactor, so thread pool is used 
+	 * from now on. Few overruns are tolerated, as first calls include class loading and 
+	 * interpretation
+	 */
+	private void checkInlineBudget(long start) {
+		if (System.nanoTime() - start > inlineExecutionBudget && ++inlineOverruns >= MAX_INLINE_OVERRUNS)
+			inlineExecution = false;
+	}
+}
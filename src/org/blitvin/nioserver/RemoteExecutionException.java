@@ -34,4 +34,20 @@ public class RemoteExecutionException extends Exception {
 	public RemoteExecutionException(Exception cause) {
 		super("Exception happened during business logic method execution",cause);
 	}
+	
+	protected RemoteExecutionException(String message, Exception cause) {
+		super(message, cause);
+	}
+	
+	/**
+	 * wraps exception deserialized from server reply. Exceptions raised by server itself
+	 * rather than by business logic e.g. {@link ServerBusyException} are returned as is
+	 * @param remote deserialized exception
+	 * @return exception to throw to caller
+	 */
+	public static RemoteExecutionException fromRemote(Exception remote) {
+		if (remote instanceof RemoteExecutionException)
+			return (RemoteExecutionException) remote;
+		return new RemoteExecutionException(remote);
+	}
 }
@@ -0,0 +1,104 @@
+/*
+ * (C) Copyright Boris Litvin 2014
+ * This file is part of NioServer library.
+ *
+ *  NioServer is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   NioServer is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with NioServer.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.blitvin.nioserver;
+
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * RequestLimiter bounds number of requests accepted by all reactors of NioServer and not
+ * answered yet. When the limit is reached, reactors stop reading from connections, so TCP flow 
+ * control pushes back on clients instead of requests piling up in memory. Once a request is 
+ * answered below the limit, reactors are notified to resume reading
+ * @author blitvin
+ *
+ */
+class RequestLimiter {
+	private final int maxRequests;
+	private final boolean unlimited; // saves contended counter updates if there is no limit
+	private final AtomicInteger inFlight = new AtomicInteger();
+	private final CopyOnWriteArrayList<Reactor<?>> reactors = new CopyOnWriteArrayList<>();
+	
+	/**
+	 * @param maxRequests limit of requests in flight
+	 */
+	RequestLimiter(int maxRequests) {
+		this.maxRequests = maxRequests;
+		unlimited = maxRequests == Integer.MAX_VALUE;
+	}
+	
+	/**
+	 * registers reactor to be notified when reading can be resumed
+	 */
+	void register(Reactor<?> reactor) {
+		reactors.add(reactor);
+	}
+	
+	/**
+	 * removes reactor that is shut down
+	 */
+	void unregister(Reactor<?> reactor) {
+		reactors.remove(reactor);
+	}
+	
+	/**
+	 * takes slot for new request
+	 * @return false if limit is reached
+	 */
+	boolean tryAcquire() {
+		if (unlimited)
+			return true;
+		int current;
+		do {
+			current = inFlight.get();
+			if (current >= maxRequests)
+				return false;
+		} while(!inFlight.compareAndSet(current, current + 1));
+		return true;
+	}
+	
+	/**
+	 * frees slots of answered or dropped requests
+	 * @param requests number of requests
+	 */
+	void release(int requests) {
+		if (unlimited || requests == 0)
+			return;
+		int before = inFlight.getAndAdd(-requests);
+		if (before >= maxRequests && before - requests < maxRequests)
+			for(Reactor<?> reactor : reactors)
+				reactor.resumeReading();
+	}
+	
+	/**
+	 * 
+	 * @return true if no more requests can be accepted at the moment
+	 */
+	boolean isExhausted() {
+		return !unlimited && inFlight.get() >= maxRequests;
+	}
+	
+	/**
+	 * 
+	 * @return number of requests accepted and not answered yet, 0 if there is no limit
+	 */
+	int getInFlight() {
+		return inFlight.get();
+	}
+}
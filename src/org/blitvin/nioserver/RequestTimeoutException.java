@@ -0,0 +1,43 @@
+/*
+ * (C) Copyright Boris Litvin 2014
+ * This file is part of NioServer library.
+ *
+ *  NioServer is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   NioServer is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with NioServer.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.blitvin.nioserver;
+
+/**
+ * RequestTimeoutException is thrown to client when processing of the request was not completed
+ * before its deadline, see {@link NioServerInitializer#setRequestTimeout(int)}. Unlike 
+ * {@link ServerBusyException} the request may have been executed, at least partially
+ * @author blitvin
+ *
+ */
+public class RequestTimeoutException extends RemoteExecutionException {
+
+	private static final long serialVersionUID = 1L;
+
+	public RequestTimeoutException() {
+		super("Request was not processed before its deadline", null);
+	}
+	
+	/**
+	 * the exception is raised by reactor, stack trace carries no information
+	 */
+	@Override
+	public synchronized Throwable fillInStackTrace() {
+		return this;
+	}
+}
@@ -0,0 +1,43 @@
+/*
+ * (C) Copyright Boris Litvin 2014
+ * This file is part of NioServer library.
+ *
+ *  NioServer is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   NioServer is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with NioServer.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.blitvin.nioserver;
+
+/**
+ * ServerBusyException is thrown to client when overloaded server rejected the request without
+ * executing it, see {@link NioServerInitializer#setLoadSheddingTarget(long)}. As the request 
+ * had no effect on server, it is safe to retry it, preferably with another server
+ * @author blitvin
+ *
+ */
+public class ServerBusyException extends RemoteExecutionException {
+
+	private static final long serialVersionUID = 1L;
+
+	public ServerBusyException() {
+		super("Server is busy, request was rejected without execution", null);
+	}
+	
+	/**
+	 * the exception is pre-encoded once by server, stack trace carries no information
+	 */
+	@Override
+	public synchronized Throwable fillInStackTrace() {
+		return this;
+	}
+}
@@ -18,7 +18,11 @@
 
 package org.blitvin.nioserver;
 
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
 import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.concurrent.ConcurrentLinkedQueue;
 
 /**
  * Server context contains all state of the connection, both business logic related i.e.
@@ -32,12 +36,39 @@ public class ServerContext<CC extends ClientContext> {
 	final ServerSideProtocol protocol;
 	final SocketChannel channel;
 	final CC clientContext;
+	SelectionKey key; // registration of the channel, kept for the whole life of connection
+	// pipelined requests decoded while previous request is processed, executed in order.
+	// Most connections have no more than one request at a time, so the queue starts small
+	final ArrayDeque<ByteBuffer> pendingRequests = new ArrayDeque<>(1);
+	ByteBuffer currentRequest; // request processed by thread pool
+	int inFlight = 0; // requests processed by thread pool or whose replies are being written
+	boolean writePending = false; // reply is partially written, waiting for OP_WRITE
+	boolean closeRequested = false; // close after replies to pending requests are written
+	boolean closed = false;
+	boolean readPaused = false; // reading stopped by limit of requests in flight of the server
+	int requestTimeout = 0; // deadline of requests set by client, 0 means server default
+	ClientRequestRunner<CC> currentTask; // runner of current request if its deadline is watched
+	// replies of pipelined requests executed by reactor thread, held back to be written together
+	// with reply of the current request. Allocated on first use
+	ArrayDeque<ByteBuffer> unsentReplies = null;
+	boolean requestTimedOut = false; // timeout reply is sent, connection is closed afterwards
+	// requests of multiplexed connection are processed concurrently
+	final boolean multiplexed;
+	// calls completed by worker threads and their replies waiting for write, multiplexed only,
+	// null otherwise to keep idle connection small
+	final ConcurrentLinkedQueue<MultiplexedRequestRunner<CC>> completedCalls;
+	final ArrayDeque<MultiplexedRequestRunner<CC>> replies;
 	
 	
 	public ServerContext(ServerSideProtocol protocol, SocketChannel channel, CC context){
 		this.protocol = protocol;
 		this.channel = channel;
 		this.clientContext = context;
+		context.serverContext = this;
+		multiplexed = protocol instanceof MultiplexedServerProtocol;
+		context.multiplexed = multiplexed;
+		completedCalls = multiplexed ? new ConcurrentLinkedQueue<MultiplexedRequestRunner<CC>>() : null;
+		replies = multiplexed ? new ArrayDeque<MultiplexedRequestRunner<CC>>(1) : null;
 	}
 	
 	public ServerSideProtocol getProtocol(){
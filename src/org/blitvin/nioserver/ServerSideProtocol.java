@@ -39,10 +39,65 @@ public interface ServerSideProtocol extends ClientServerProtocol{
 	 * @return serialized exception
 	 */
 	ByteBuffer putExceptionReply(Exception e);
+	/**
+	 * encodes reply rejecting the request because server is overloaded, client gets 
+	 * {@link ServerBusyException}. The reply is sent without executing the request, so it 
+	 * should be cheap to produce
+	 * @return encoded reply
+	 */
+	default ByteBuffer putBusyReply() {
+		return putExceptionReply(new ServerBusyException());
+	}
+	/**
+	 * encodes reply to the request that was not processed before its deadline, client gets 
+	 * {@link RequestTimeoutException}
+	 * @return encoded reply
+	 */
+	default ByteBuffer putTimeoutReply() {
+		return putExceptionReply(new RequestTimeoutException());
+	}
+	/**
+	 * encodes header of reply to be sent by gathering write followed by the reply array itself,
+	 * so large replies are not copied before they are written to the socket
+	 * @param reply reply set by business logic
+	 * @return header of the reply, or null if the reply is to be encoded by encodeMessage
+	 */
+	default ByteBuffer encodeHeader(byte[] reply) {
+		return null;
+	}
+	/**
+	 * encodes header of reply whose value is region of a file, see 
+	 * {@link ClientContext#setReply(java.nio.channels.FileChannel, long, long)}. The region is
+	 * sent right after the header
+	 * @param length length of the region
+	 * @return header of the reply, or null if the protocol can't send file regions, in this case
+	 * the region is read into array and encoded by encodeMessage
+	 */
+	default ByteBuffer encodeRegionHeader(int length) {
+		return null;
+	}
 	/**
 	 * method for extraction of request information i.e. non-service message sent by client 
 	 * @return
 	 */
 	byte[] getRequest();
+	/**
+	 * detaches complete request from decoding state, so the protocol can go on decoding
+	 * pipelined requests while this one is processed. Resources backing the request are kept
+	 * until requestProcessed is called
+	 * @return the request, read-only view if the protocol decoded it without copying
+	 */
+	default ByteBuffer takeRequest() {
+		ByteBuffer request = ByteBuffer.wrap(getRequest());
+		inboundMessageHasBeenConsumed();
+		return request;
+	}
+	/**
+	 * notifies the protocol that request returned by takeRequest is processed and its reply 
+	 * is sent
+	 * @param request the request as returned by takeRequest
+	 */
+	default void requestProcessed(ByteBuffer request) {
+	}
 	
 }
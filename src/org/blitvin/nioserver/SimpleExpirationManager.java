@@ -84,6 +84,7 @@ public class SimpleExpirationManager<V>  implements ExpirationManager<V> {
 	private volatile HashSet<V> prevGen;
 	private volatile HashSet<V> obsoleted;
 	Ticker<V> ticker;
+	private final int tick;
 	private volatile boolean shouldStopTicking;
 	final private Collection<V> empty;
 	private void updateGen(){
@@ -141,10 +142,22 @@ public class SimpleExpirationManager<V>  implements ExpirationManager<V> {
 		prevGen = new HashSet<>();
 		obsoleted = new HashSet<>();
 		shouldStopTicking = false;
+		tick = timeout;
 		ticker = new Ticker<V>(timeout,this);
 		ticker.setDaemon(true);
 	}
 
+	/**
+	 * exact time of next generation change is not tracked, so if there are monitored items 
+	 * getExpired should be polled once in tick
+	 */
+	@Override
+	public synchronized long getNextExpirationDelay() {
+		if (currentGen.isEmpty() && prevGen.isEmpty() && (obsoleted == null || obsoleted.isEmpty()))
+			return 0;
+		return tick;
+	}
+
 	@Override
 	public void stop() {
 		shouldStopTicking = true;
@@ -0,0 +1,91 @@
+/*
+ * (C) Copyright Boris Litvin 2014
+ * This file is part of NioServer library.
+ *
+ *  NioServer is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   NioServer is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with NioServer.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.blitvin.nioserver;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Request handed to thread pool that is subject to processing deadline. Worker thread executing
+ * the request and reactor enforcing the deadline race for completion of the request, whichever 
+ * of them comes first decides whether reply of business logic or timeout reply is sent. If the
+ * deadline passes while the request is executed, worker thread is interrupted and the request is
+ * abandoned i.e. its reply is dropped when it eventually comes back
+ * @author blitvin
+ *
+ */
+abstract class TimedTask implements ConnectionTask {
+	private static final int PENDING = 0;
+	private static final int RUNNING = 1;
+	private static final int COMPLETED = 2;
+	private static final int INTERRUPTING = 3;
+	private static final int TIMED_OUT = 4;
+	
+	private final AtomicInteger state = new AtomicInteger(PENDING);
+	private volatile Thread worker;
+	int deadlineHint = -1; // hint of reactor's deadline manager
+	
+	/**
+	 * called by worker thread before execution of the request
+	 * @return false if deadline passed while the request was queued, so it should not be executed
+	 */
+	final boolean start() {
+		worker = Thread.currentThread();
+		return state.compareAndSet(PENDING, RUNNING);
+	}
+	
+	/**
+	 * called by worker thread after execution of the request
+	 * @return true if reply of business logic should be sent, false if the request timed out
+	 */
+	final boolean complete() {
+		boolean retVal = state.compareAndSet(RUNNING, COMPLETED);
+		if (!retVal) {
+			// interrupt meant for this request must not leak to next task of the thread
+			while(state.get() == INTERRUPTING)
+				Thread.yield();
+			Thread.interrupted();
+		}
+		worker = null;
+		return retVal;
+	}
+	
+	/**
+	 * called by reactor when deadline of the request passes
+	 * @return true if the request timed out, false if it has been completed already
+	 */
+	final boolean timeOut() {
+		if (state.compareAndSet(PENDING, TIMED_OUT))
+			return true;
+		if (!state.compareAndSet(RUNNING, INTERRUPTING))
+			return false;
+		Thread thread = worker;
+		if (thread != null)
+			thread.interrupt();
+		state.set(TIMED_OUT);
+		return true;
+	}
+	
+	/**
+	 * 
+	 * @return true if the request is abandoned because of the deadline
+	 */
+	final boolean isTimedOut() {
+		return state.get() >= INTERRUPTING;
+	}
+}
@@ -0,0 +1,252 @@
+/*
+ * (C) Copyright Boris Litvin 2014
+ * This file is part of NioServer library.
+ *
+ *  NioServer is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   NioServer is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with NioServer.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.blitvin.nioserver;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Expiration manager based on hashed timing wheel. Time is divided into ticks of configurable
+ * resolution, wheel has a bucket per tick (number of buckets is power of two larger than timeout
+ * in ticks), and each item is kept in bucket of tick its deadline falls on. Items are stored in
+ * preallocated arrays linked in doubly linked lists, hint returned by add and touch is index of
+ * the item in those arrays, so add, touch and remove are O(1) and don't allocate. Touch only
+ * updates deadline of the item, the item is moved to proper bucket when its old bucket is reached,
+ * so bucket the item is linked in is kept separately from its deadline.
+ * There is no background thread: the wheel is advanced by getExpired, which NioServer calls from
+ * selector loop, so the manager is not thread safe and must be used by single thread.
+ * Deadlines are counted from the tick reached by last getExpired call, so item is reported as
+ * expired after at least timeout and at most timeout plus one tick of inactivity provided getExpired
+ * is called frequently enough
+ * @author blitvin
+ *
+ * @param <V>
+ */
+public class TimingWheelExpirationManager<V> implements ExpirationManager<V> {
+
+	private static final int NONE = -1;
+	private static final int INITIAL_CAPACITY = 1024;
+
+	private final long tickNanos;
+	private final long startTime;
+	private final int timeoutTicks;
+	private final int mask;
+	private final int[] buckets; // head of list per tick
+	private final Collection<V> empty = Collections.emptyList();
+	private Object[] values;
+	private long[] deadlines;
+	private int[] next;
+	private int[] prev;
+	private int[] bucketOf; // bucket the item is linked in, not necessarily that of its deadline
+	private int freeList = NONE; // linked by next
+	private int allocated = 0; // number of array slots ever used
+	private int size = 0;
+	private long currentTick = 0; // last tick processed by getExpired
+	// no bucket before this tick has items, Long.MAX_VALUE if wheel is empty
+	private long nextTick = Long.MAX_VALUE;
+
+	/**
+	 * @param timeout inactivity period in msecs after which item is expired
+	 * @param tickResolution resolution of the wheel in msecs, reduced to timeout if larger 
+	 */
+	public TimingWheelExpirationManager(int timeout, int tickResolution) {
+		if (timeout <= 0 || tickResolution <= 0)
+			throw new IllegalArgumentException("illegal timeout="+ timeout +" or tick resolution="+ tickResolution);
+		int tick = Math.min(timeout, tickResolution);
+		tickNanos = TimeUnit.MILLISECONDS.toNanos(tick);
+		timeoutTicks = (timeout + tick - 1) / tick;
+		// deadline is at most timeoutTicks + 1 ahead of current tick, so it never wraps around 
+		int wheelSize = Integer.highestOneBit(timeoutTicks + 1) << 1;
+		mask = wheelSize - 1;
+		buckets = new int[wheelSize];
+		Arrays.fill(buckets, NONE);
+		values = new Object[INITIAL_CAPACITY];
+		deadlines = new long[INITIAL_CAPACITY];
+		next = new int[INITIAL_CAPACITY];
+		prev = new int[INITIAL_CAPACITY];
+		bucketOf = new int[INITIAL_CAPACITY];
+		startTime = System.nanoTime();
+	}
+
+	/**
+	 * 
+	 * @return number of items monitored by the manager
+	 */
+	public int size() {
+		return size;
+	}
+
+	private int allocate() {
+		if (freeList != NONE) {
+			int retVal = freeList;
+			freeList = next[retVal];
+			return retVal;
+		}
+		if (allocated == values.length) {
+			int capacity = values.length << 1;
+			values = Arrays.copyOf(values, capacity);
+			deadlines = Arrays.copyOf(deadlines, capacity);
+			next = Arrays.copyOf(next, capacity);
+			prev = Arrays.copyOf(prev, capacity);
+			bucketOf = Arrays.copyOf(bucketOf, capacity);
+		}
+		return allocated++;
+	}
+
+	private void free(int node) {
+		values[node] = null;
+		next[node] = freeList;
+		freeList = node;
+		size--;
+	}
+
+	private void link(int node) {
+		int bucket = (int) (deadlines[node] & mask);
+		int head = buckets[bucket];
+		bucketOf[node] = bucket;
+		prev[node] = NONE;
+		next[node] = head;
+		if (deadlines[node] < nextTick)
+			nextTick = deadlines[node];
+		if (head != NONE)
+			prev[head] = node;
+		buckets[bucket] = node;
+	}
+
+	private void unlink(int node) {
+		int p = prev[node];
+		int n = next[node];
+		if (p == NONE)
+			buckets[bucketOf[node]] = n;
+		else
+			next[p] = n;
+		if (n != NONE)
+			prev[n] = p;
+	}
+
+	private boolean isValid(V v, int hint) {
+		return hint >= 0 && hint < allocated && v.equals(values[hint]);
+	}
+
+	@Override
+	public int add(V v) {
+		return addWithDeadline(v, currentTick + timeoutTicks + 1);
+	}
+
+	/**
+	 * notifies the manager of new element that expires after its own timeout rather than timeout
+	 * of the manager. Timeouts longer than timeout of the manager are supported, but such items are
+	 * visited each time the wheel goes round. Touch of the element extends it by timeout of the
+	 * manager
+	 * @param v new item to manage
+	 * @param timeout timeout of the item in msecs
+	 * @return hint as returned by add(V)
+	 */
+	public int add(V v, int timeout) {
+		return addWithDeadline(v, currentTick + (TimeUnit.MILLISECONDS.toNanos(timeout) + tickNanos - 1) / tickNanos + 1);
+	}
+
+	private int addWithDeadline(V v, long deadline) {
+		int node = allocate();
+		values[node] = v;
+		deadlines[node] = deadline;
+		link(node);
+		size++;
+		return node;
+	}
+
+	@Override
+	public int touch(V v, int hint) {
+		if (!isValid(v, hint)) 
+			return add(v);
+		// bucket of old deadline is reached earlier, node is moved from there
+		deadlines[hint] = currentTick + timeoutTicks + 1;
+		return hint;
+	}
+
+	@Override
+	public boolean remove(V v, int hint) {
+		if (!isValid(v, hint))
+			return false;
+		unlink(hint);
+		free(hint);
+		return true;
+	}
+
+	@Override
+	public long getNextExpirationDelay() {
+		if (size == 0)
+			return 0;
+		long delay = startTime + nextTick * tickNanos - System.nanoTime();
+		return Math.max(1, TimeUnit.NANOSECONDS.toMillis(delay + TimeUnit.MILLISECONDS.toNanos(1) - 1));
+	}
+
+	@Override
+	public void start() {
+	}
+
+	@Override
+	public void stop() {
+	}
+
+	@Override
+	@SuppressWarnings("unchecked")
+	public Collection<V> getExpired() {
+		long now = (System.nanoTime() - startTime) / tickNanos;
+		if (now == currentTick)
+			return empty;
+		// buckets of ticks before nextTick are empty
+		long from = Math.max(Math.max(currentTick + 1, nextTick), now - mask); // after long pause every bucket is visited once
+		currentTick = now;
+		if (from > now)
+			return empty;
+		ArrayList<V> retVal = null;
+		for(long tick = from; tick <= now; ++tick) {
+			int bucket = (int) (tick & mask);
+			int node = buckets[bucket];
+			buckets[bucket] = NONE;
+			while (node != NONE) {
+				int following = next[node];
+				if (deadlines[node] <= now) {
+					if (retVal == null)
+						retVal = new ArrayList<>();
+					retVal.add((V) values[node]);
+					free(node);
+				} else {
+					link(node); // touched since added to this bucket
+				}
+				node = following;
+			}
+		}
+		nextTick = Long.MAX_VALUE;
+		if (size > 0) {
+			// find first non-empty bucket, relinked items are there as well as not visited ones
+			for(long tick = now + 1; tick <= now + mask + 1; ++tick) {
+				if (buckets[(int) (tick & mask)] != NONE) {
+					nextTick = tick;
+					break;
+				}
+			}
+		}
+		return retVal == null ? empty : retVal;
+	}
+}
@@ -0,0 +1,172 @@
+package org.blitvin.nioserver;
+
+import static org.junit.Assert.*;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+public class AffinityExecutorTest {
+	static final int NUM_OF_CONTEXTS = 16;
+	static final int NUM_OF_TASKS = 1000;
+	
+	static class Task implements ConnectionTask {
+		final ClientContext context;
+		final Runnable body;
+		
+		Task(ClientContext context, Runnable body) {
+			this.context = context;
+			this.body = body;
+		}
+		
+		@Override
+		public ClientContext getClientContext() {
+			return context;
+		}
+
+		@Override
+		public void run() {
+			body.run();
+		}
+	}
+
+	@Test
+	public void testAffinity() throws InterruptedException {
+		AffinityExecutor executor = new AffinityExecutor(4, Integer.MAX_VALUE);
+		final ConcurrentHashMap<ClientContext, Thread> threads = new ConcurrentHashMap<>();
+		final AtomicInteger wrongThread = new AtomicInteger();
+		final CountDownLatch done = new CountDownLatch(NUM_OF_CONTEXTS * NUM_OF_TASKS);
+		ClientContext[] contexts = new ClientContext[NUM_OF_CONTEXTS];
+		for(int i = 0; i < NUM_OF_CONTEXTS; ++i)
+			contexts[i] = new ClientContext();
+		for(int j = 0; j < NUM_OF_TASKS; ++j) {
+			for(final ClientContext context : contexts) {
+				executor.execute(new Task(context, new Runnable() {
+					@Override
+					public void run() {
+						Thread previous = threads.putIfAbsent(context, Thread.currentThread());
+						if (previous != null && previous != Thread.currentThread())
+							wrongThread.incrementAndGet();
+						done.countDown();
+					}
+				}));
+			}
+		}
+		assertTrue(done.await(10, TimeUnit.SECONDS));
+		assertEquals(0, wrongThread.get());
+		assertEquals(0, executor.getStolenTasks());
+		executor.shutdown();
+		assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+	}
+	
+	@Test
+	public void testStealing() throws InterruptedException {
+		AffinityExecutor executor = new AffinityExecutor(4, 1);
+		final CountDownLatch done = new CountDownLatch(40);
+		final ConcurrentHashMap<Thread, Boolean> threads = new ConcurrentHashMap<>();
+		ClientContext context = new ClientContext();
+		for(int i = 0; i < 40; ++i) {
+			executor.execute(new Task(context, new Runnable() {
+				@Override
+				public void run() {
+					threads.put(Thread.currentThread(), Boolean.TRUE);
+					try {
+						Thread.sleep(5);
+					} catch (InterruptedException e) {
+					}
+					done.countDown();
+				}
+			}));
+		}
+		assertTrue(done.await(10, TimeUnit.SECONDS));
+		// single overloaded connection is served by several workers
+		assertTrue(executor.getStolenTasks() > 0);
+		assertTrue(threads.size() > 1);
+		executor.shutdown();
+		assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+		assertTrue(executor.isTerminated());
+	}
+	
+	@Test
+	public void testWorkersStartWithFirstTask() throws InterruptedException {
+		NioServerInitializer<TestClientContext, TestBytesMP> initializer = 
+				new NioServerInitializer<>(12368, TestClientContext.class, TestBytesMP.class, null);
+		initializer.setAffinityWorkers(2);
+		AffinityExecutor unused = (AffinityExecutor) initializer.getThreadPool();
+		unused.shutdown();
+		// no worker thread was started, so nothing keeps running
+		assertTrue(unused.isTerminated());
+		AffinityExecutor executor = (AffinityExecutor) initializer.getThreadPool();
+		final CountDownLatch done = new CountDownLatch(1);
+		executor.execute(new Runnable() {
+			@Override
+			public void run() {
+				done.countDown();
+			}
+		});
+		assertTrue(done.await(10, TimeUnit.SECONDS));
+		executor.shutdown();
+		assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+	}
+
+	@Test
+	public void testTaskRacingShutdownIsRunOrRejected() throws InterruptedException {
+		for(int i = 0; i < 1000; ++i) {
+			final AffinityExecutor executor = new AffinityExecutor(1, AffinityExecutor.DEFAULT_STEAL_THRESHOLD);
+			final CountDownLatch ran = new CountDownLatch(1);
+			final AtomicInteger rejected = new AtomicInteger();
+			final CountDownLatch ready = new CountDownLatch(1);
+			Thread submitter = new Thread() {
+				@Override
+				public void run() {
+					ready.countDown();
+					try {
+						executor.execute(new Runnable() {
+							@Override
+							public void run() {
+								ran.countDown();
+							}
+						});
+					} catch (RejectedExecutionException e) {
+						rejected.incrementAndGet();
+					}
+				}
+			};
+			submitter.start();
+			ready.await();
+			executor.shutdown();
+			submitter.join();
+			if (rejected.get() == 0)
+				assertTrue("accepted task is lost", ran.await(10, TimeUnit.SECONDS));
+			assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+		}
+	}
+
+	@Test
+	public void testServerWithAffinity() throws Exception {
+		NioServerInitializer<TestClientContext, TestBytesMP> initializer =
+				new NioServerInitializer<>(12354, TestClientContext.class, TestBytesMP.class, null);
+		initializer.setAffinityWorkers(2);
+		NioServer<TestClientContext, TestBytesMP> server = new NioServer<>(initializer);
+		Thread serverThread = new Thread(server);
+		serverThread.setDaemon(true);
+		serverThread.start();
+		try {
+			for(int c = 1; c <= 4; ++c) {
+				ClientHelper helper = new ClientHelper("localhost", 12354);
+				for(int i = 1; i <= 20; ++i)
+					assertArrayEquals(new byte[]{(byte) c, (byte) (i + 1)}, 
+							helper.sendRequest(new byte[]{(byte) c, (byte) i}));
+				helper.closeConnection();
+			}
+		} finally {
+			server.shutdown();
+		}
+		serverThread.join(10000);
+		assertFalse(serverThread.isAlive());
+	}
+}
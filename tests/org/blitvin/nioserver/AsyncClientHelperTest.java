@@ -0,0 +1,131 @@
+package org.blitvin.nioserver;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+public class AsyncClientHelperTest {
+	static final int NUM_OF_REQUESTS = 100;
+	static final int NUM_OF_HELPERS = 10;
+	static NioServer<TestClientContext, TestBytesMP> lvServer = null;
+	static NioServer<TestClientContext, TestEchoMP> muxServer = null;
+	static ClientEventLoop loop = null;
+	
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	@BeforeClass
+	public static void setup() throws IOException{
+			lvServer = new NioServer<>(12349, TestClientContext.class, TestBytesMP.class, null);
+			Thread serverThread = new Thread(lvServer);
+			serverThread.setDaemon(true);
+			serverThread.start();
+			muxServer = new NioServer<>(12350, TestClientContext.class, TestEchoMP.class,
+							(Class) MuxServerProtocol.class);
+			serverThread = new Thread(muxServer);
+			serverThread.setDaemon(true);
+			serverThread.start();
+			loop = ClientEventLoop.open();
+	}
+
+	@AfterClass
+	public static void shutdown() {
+		if (loop != null)
+			loop.shutdown();
+		if(lvServer != null)
+			lvServer.shutdown();
+		if(muxServer != null)
+			muxServer.shutdown();
+	}
+
+	@Test
+	public void testPipelinedRequests() throws Exception {
+		List<AsyncClientHelper> helpers = new ArrayList<>();
+		List<CompletableFuture<byte[]>> replies = new ArrayList<>();
+		for(int i = 1; i <= NUM_OF_HELPERS; ++i) {
+			AsyncClientHelper helper = new AsyncClientHelper("localhost", 12349, loop);
+			helpers.add(helper);
+			for(int j = 1; j <= NUM_OF_REQUESTS; ++j)
+				replies.add(helper.sendRequestAsync(new byte[]{(byte) i, (byte) j}));
+		}
+		for(int i = 0; i < replies.size(); ++i) {
+			byte[] reply = replies.get(i).get();
+			assertEquals(i / NUM_OF_REQUESTS + 1, reply[0]);
+			assertEquals(i % NUM_OF_REQUESTS + 2, reply[1]);
+		}
+		for(AsyncClientHelper helper: helpers)
+			helper.closeConnection();
+	}
+
+	@Test
+	public void testRemoteException() throws Exception {
+		AsyncClientHelper helper = new AsyncClientHelper("localhost", 12349, loop);
+		CompletableFuture<byte[]> first = helper.sendRequestAsync(new byte[]{1, 1});
+		CompletableFuture<byte[]> wrong = helper.sendRequestAsync(new byte[]{2, 2});
+		CompletableFuture<byte[]> second = helper.sendRequestAsync(new byte[]{1, 2});
+		assertArrayEquals(new byte[]{1, 2}, first.get());
+		try {
+			wrong.get();
+			fail("message id mismatch should cause exception");
+		} catch (ExecutionException e) {
+			assertTrue(e.getCause() instanceof RemoteExecutionException);
+			assertTrue(e.getCause().getCause() instanceof IllegalArgumentException);
+		}
+		assertArrayEquals(new byte[]{1, 3}, second.get());
+		helper.closeConnection();
+		try {
+			helper.sendRequestAsync(new byte[]{1, 3}).get();
+			fail("closed helper should fail requests");
+		} catch (ExecutionException e) {
+			assertTrue(e.getCause() instanceof IOException);
+		}
+	}
+
+	@Test
+	public void testMultiplexedRequests() throws Exception {
+		AsyncClientHelper helper = new AsyncClientHelper("localhost", 12350, loop, new MuxClientProtocol());
+		CompletableFuture<byte[]> slow = helper.sendRequestAsync(new byte[]{100, 0});
+		List<CompletableFuture<byte[]>> replies = new ArrayList<>();
+		for(int j = 0; j < NUM_OF_REQUESTS; ++j)
+			replies.add(helper.sendRequestAsync(new byte[]{0, (byte) j}));
+		for(int j = 0; j < NUM_OF_REQUESTS; ++j)
+			assertArrayEquals(new byte[]{0, (byte) j}, replies.get(j).get());
+		// replies to fast requests are not blocked behind the slow one
+		assertFalse(slow.isDone());
+		assertArrayEquals(new byte[]{100, 0}, slow.get());
+		helper.closeConnection();
+	}
+
+	@Test
+	public void testProtocolFailureFailsPendingCalls() throws Exception {
+		AsyncClientHelper broken = new AsyncClientHelper("localhost", 12349, loop, new LVClientProtocol() {
+			@Override
+			public byte[] getReply() {
+				throw new IllegalStateException("broken protocol");
+			}
+		});
+		CompletableFuture<byte[]> first = broken.sendRequestAsync(new byte[]{1, 1});
+		CompletableFuture<byte[]> second = broken.sendRequestAsync(new byte[]{1, 2});
+		for(CompletableFuture<byte[]> reply: Arrays.asList(first, second)) {
+			try {
+				reply.get(5, TimeUnit.SECONDS);
+				fail("failure of the protocol should fail the call");
+			} catch (ExecutionException e) {
+				assertTrue(e.getCause() instanceof IOException);
+				assertTrue(e.getCause().getCause() instanceof IllegalStateException);
+			}
+		}
+		// other connections of the loop are not affected
+		AsyncClientHelper helper = new AsyncClientHelper("localhost", 12349, loop);
+		assertArrayEquals(new byte[]{1, 2}, helper.sendRequestAsync(new byte[]{1, 1}).get(5, TimeUnit.SECONDS));
+		helper.closeConnection();
+	}
+}
@@ -0,0 +1,76 @@
+package org.blitvin.nioserver;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+public class BackpressureTest {
+	static final int NUM_OF_CLIENTS = 20;
+	static final int NUM_OF_REQUESTS = 20;
+	static final int MAX_REQUESTS_IN_FLIGHT = 4;
+	static NioServerInitializer<TestClientContext, TestEchoMP> initializer = null;
+	static NioServer<TestClientContext, TestEchoMP> server = null;
+	
+	@BeforeClass
+	public static void setup() throws IOException{
+			initializer = new NioServerInitializer<>(12355, TestClientContext.class, TestEchoMP.class, null);
+			initializer.setMaxRequestsInFlight(MAX_REQUESTS_IN_FLIGHT);
+			initializer.setReactorCount(2);
+			server = new NioServer<>(initializer);
+			Thread serverThread = new Thread(server);
+			serverThread.setDaemon(true);
+			serverThread.start();
+	}
+
+	@AfterClass
+	public static void shutdown() {
+		if(server != null)
+			server.shutdown();
+	}
+
+	@Test
+	public void testReadingPausedAtLimit() throws InterruptedException {
+		final AtomicInteger gotError = new AtomicInteger(0);
+		final AtomicInteger maxInFlight = new AtomicInteger(0);
+		final RequestLimiter limiter = initializer.getRequestLimiter();
+		final CountDownLatch endLatch = new CountDownLatch(NUM_OF_CLIENTS);
+		for(int i = 0 ; i < NUM_OF_CLIENTS; ++i) {
+			final byte id = (byte) i;
+			new Thread() {
+				@Override
+				public void run() {
+					try {
+						ClientHelper helper = new ClientHelper("localhost", 12355);
+						for(int j = 0; j < NUM_OF_REQUESTS; ++j) {
+							byte[] request = {2, id, (byte) j};
+							if (!java.util.Arrays.equals(request, helper.sendRequest(request)))
+								gotError.incrementAndGet();
+							int inFlight = limiter.getInFlight();
+							if (inFlight > maxInFlight.get())
+								maxInFlight.set(inFlight);
+						}
+						helper.closeConnection();
+					} catch (Exception e) {
+						e.printStackTrace();
+						gotError.incrementAndGet();
+					}
+					endLatch.countDown();
+				}
+			}.start();
+		}
+		endLatch.await();
+		assertEquals(0, gotError.get());
+		assertTrue(maxInFlight.get() <= MAX_REQUESTS_IN_FLIGHT);
+		assertTrue(server.getStatistics().getReadPauses() > 0);
+		// slot is freed right after the reply is written
+		for(int i = 0; i < 100 && limiter.getInFlight() > 0; ++i)
+			Thread.sleep(10);
+		assertEquals(0, limiter.getInFlight());
+	}
+}
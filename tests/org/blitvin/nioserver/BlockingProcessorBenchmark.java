@@ -0,0 +1,102 @@
+package org.blitvin.nioserver;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiConsumer;
+
+/**
+ * Benchmark of request execution by cached thread pool versus virtual thread per request on 
+ * message processor blocking for long time (as one calling database would). Each of the 
+ * connections keeps fixed number of multiplexed requests in flight, each request sleeps in
+ * processData. Reports throughput and peak number of threads of the JVM.
+ * Usage: java org.blitvin.nioserver.BlockingProcessorBenchmark [connections] [inFlightPerConnection] 
+ * [delayMs] [seconds]
+ */
+public class BlockingProcessorBenchmark {
+	
+	private static final int PORT = 12360;
+	
+	static class Result {
+		long requests;
+		long failures;
+		int peakThreads;
+	}
+	
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	static Result run(boolean virtualThreads, int port, int connections, final int inFlight, final byte delay, 
+			int seconds) throws IOException, InterruptedException {
+		NioServerInitializer<TestClientContext, TestEchoMP> initializer = new NioServerInitializer<>(port, 
+				TestClientContext.class, TestEchoMP.class, (Class) MuxServerProtocol.class);
+		initializer.setVirtualThreads(virtualThreads);
+		initializer.disableClientTimeout();
+		NioServer<TestClientContext, TestEchoMP> server = new NioServer<>(initializer);
+		Thread serverThread = new Thread(server);
+		serverThread.setDaemon(true);
+		serverThread.start();
+		Thread.sleep(100);
+		
+		ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+		threads.resetPeakThreadCount();
+		ClientEventLoop loop = ClientEventLoop.open();
+		final AtomicLong completed = new AtomicLong();
+		final AtomicLong failed = new AtomicLong();
+		final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(seconds);
+		final CountDownLatch done = new CountDownLatch(connections * inFlight);
+		List<AsyncClientHelper> helpers = new ArrayList<>();
+		for(int i = 0; i < connections; ++i) {
+			final AsyncClientHelper helper = new AsyncClientHelper("localhost", port, loop, new MuxClientProtocol());
+			helpers.add(helper);
+			for(int j = 0; j < inFlight; ++j) {
+				// each chain sends next request when reply to previous one arrives
+				helper.sendRequestAsync(new byte[]{delay}).whenComplete(new BiConsumer<byte[], Throwable>() {
+					@Override
+					public void accept(byte[] reply, Throwable error) {
+						if (error != null) {
+							failed.incrementAndGet();
+							done.countDown();
+							return;
+						}
+						completed.incrementAndGet();
+						if (System.nanoTime() < deadline)
+							helper.sendRequestAsync(new byte[]{delay}).whenComplete(this);
+						else
+							done.countDown();
+					}
+				});
+			}
+		}
+		done.await();
+		Result result = new Result();
+		result.requests = completed.get();
+		result.failures = failed.get();
+		result.peakThreads = threads.getPeakThreadCount();
+		for(AsyncClientHelper helper : helpers)
+			helper.closeConnection();
+		loop.shutdown();
+		server.shutdown();
+		return result;
+	}
+	
+	public static void main(String[] args) throws IOException, InterruptedException {
+		int connections = args.length > 0 ? Integer.parseInt(args[0]) : 50;
+		int inFlight = args.length > 1 ? Integer.parseInt(args[1]) : 40;
+		byte delay = args.length > 2 ? Byte.parseByte(args[2]) : 20;
+		int seconds = args.length > 3 ? Integer.parseInt(args[3]) : 10;
+		if (!NioServerInitializer.isVirtualThreadsSupported())
+			System.out.println("virtual threads are not supported by this JVM, cached thread pool is used in both runs");
+		System.out.println("connections="+connections+" inFlight="+connections * inFlight+" delay="+delay+
+				"ms duration="+seconds+"s");
+		String[] names = {"cached thread pool: ", "virtual threads:    "};
+		for(int i = 0; i < names.length; ++i) {
+			Result result = run(i == 1, PORT + i, connections, inFlight, delay, seconds);
+			System.out.println(names[i] + result.requests / seconds + " requests/s, peak threads " + 
+				result.peakThreads + ", failures " + result.failures);
+		}
+	}
+}
@@ -0,0 +1,59 @@
+package org.blitvin.nioserver;
+
+import static org.junit.Assert.*;
+
+import java.nio.ByteBuffer;
+
+import org.junit.Test;
+
+public class BufferPoolTest {
+
+	@Test
+	public void testSizeClasses() {
+		BufferPool pool = new BufferPool(256, 4096, 1 << 20);
+		ByteBuffer b = pool.acquire(10);
+		assertTrue(b.isDirect());
+		assertEquals(256, b.capacity());
+		ByteBuffer b2 = pool.acquire(257);
+		assertEquals(512, b2.capacity());
+		ByteBuffer b3 = pool.acquire(4096);
+		assertEquals(4096, b3.capacity());
+		ByteBuffer big = pool.acquire(4097);
+		assertFalse(big.isDirect());
+		assertEquals(1, pool.getUnpooled());
+		assertEquals(3, pool.getOutstanding());
+		pool.release(b);
+		pool.release(b2);
+		pool.release(b3);
+		pool.release(big);
+		assertEquals(0, pool.getOutstanding());
+		assertEquals(3, pool.getAllocated());
+	}
+	
+	@Test
+	public void testReuse() {
+		BufferPool pool = new BufferPool(256, 4096, 1 << 20);
+		ByteBuffer b = pool.acquire(100);
+		b.putInt(5);
+		pool.release(b);
+		ByteBuffer b2 = pool.acquire(200);
+		assertSame(b, b2);
+		assertEquals(0, b2.position());
+		assertEquals(b2.capacity(), b2.limit());
+		assertEquals(1, pool.getAllocated());
+		assertEquals(1, pool.getOutstanding());
+	}
+	
+	@Test
+	public void testCapacityLimit() {
+		// 512 bytes per size class, room for single buffer of 512 bytes
+		BufferPool pool = new BufferPool(256, 512, 1024);
+		ByteBuffer b1 = pool.acquire(512);
+		ByteBuffer b2 = pool.acquire(512);
+		pool.release(b1);
+		pool.release(b2);
+		assertEquals(1, pool.getDiscarded());
+		assertEquals(0, pool.getOutstanding());
+		assertSame(b1, pool.acquire(512));
+	}
+}
@@ -0,0 +1,146 @@
+package org.blitvin.nioserver;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.net.SocketTimeoutException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.blitvin.nioserver.ClientConnectionPool.Call;
+import org.blitvin.nioserver.ClientConnectionPool.PooledConnection;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+public class ClientConnectionPoolTest {
+	static final int NUM_OF_THREADS = 20;
+	static final int NUM_OF_REQUESTS = 50;
+	static final int MAX_CONNECTIONS = 4;
+	static NioServer<TestClientContext, TestEchoMP> server = null;
+	
+	@BeforeClass
+	public static void setup() throws IOException{
+			server = new NioServer<>(12351, TestClientContext.class, TestEchoMP.class, null);
+			Thread serverThread = new Thread(server);
+			serverThread.setDaemon(true);
+			serverThread.start();
+	}
+
+	@AfterClass
+	public static void shutdown() {
+		if(server != null)
+			server.shutdown();
+	}
+	
+	private static Call<ClientHelper, byte[]> echo(final byte[] request) {
+		return new Call<ClientHelper, byte[]>() {
+			@Override
+			public byte[] call(ClientHelper connection) throws IOException, ClassNotFoundException, 
+					RemoteExecutionException {
+				return connection.sendRequest(request);
+			}
+		};
+	}
+
+	@Test
+	public void testConcurrentCalls() throws Exception {
+		final ClientConnectionPool<ClientHelper> pool = ClientConnectionPool.forClientHelper("localhost", 12351,
+				1, MAX_CONNECTIONS);
+		final AtomicInteger failures = new AtomicInteger();
+		final AtomicInteger maxOpen = new AtomicInteger();
+		List<Thread> threads = new ArrayList<>();
+		for(int i = 0; i < NUM_OF_THREADS; ++i) {
+			final byte id = (byte) i;
+			Thread t = new Thread(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						for(int j = 0; j < NUM_OF_REQUESTS; ++j) {
+							byte[] request = new byte[]{0, id, (byte) j};
+							if (!java.util.Arrays.equals(request, pool.execute(echo(request))))
+								failures.incrementAndGet();
+							int open = pool.getOpenConnections();
+							if (open > maxOpen.get())
+								maxOpen.set(open);
+						}
+					} catch (Exception e) {
+						e.printStackTrace();
+						failures.incrementAndGet();
+					}
+				}
+			});
+			threads.add(t);
+			t.start();
+		}
+		for(Thread t : threads)
+			t.join();
+		assertEquals(0, failures.get());
+		assertTrue(maxOpen.get() <= MAX_CONNECTIONS);
+		assertEquals(pool.getOpenConnections(), pool.getIdleConnections());
+		pool.close();
+		assertEquals(0, pool.getOpenConnections());
+	}
+	
+	@Test
+	public void testBorrowTimeout() throws Exception {
+		ClientConnectionPool<ClientHelper> pool = ClientConnectionPool.forClientHelper("localhost", 12351, 0, 1);
+		pool.setBorrowTimeout(100);
+		try (PooledConnection<ClientHelper> connection = pool.borrow()) {
+			assertTrue(connection.get().isOpen());
+			try {
+				pool.borrow();
+				fail("second connection should not be handed out");
+			} catch (SocketTimeoutException e) {
+			}
+		}
+		try (PooledConnection<ClientHelper> connection = pool.borrow()) {
+			assertArrayEquals(new byte[]{0, 1}, connection.get().sendRequest(new byte[]{0, 1}));
+		}
+		pool.close();
+	}
+	
+	@Test
+	public void testInvalidatedConnectionIsReplaced() throws Exception {
+		ClientConnectionPool<ClientHelper> pool = ClientConnectionPool.forClientHelper("localhost", 12351, 0, 1);
+		ClientHelper first;
+		try (PooledConnection<ClientHelper> connection = pool.borrow()) {
+			first = connection.get();
+			connection.invalidate();
+		}
+		assertFalse(first.isOpen());
+		assertEquals(0, pool.getOpenConnections());
+		try (PooledConnection<ClientHelper> connection = pool.borrow()) {
+			assertNotSame(first, connection.get());
+			assertArrayEquals(new byte[]{0, 2}, connection.get().sendRequest(new byte[]{0, 2}));
+		}
+		// remote exception leaves connection in the pool
+		try {
+			pool.execute(echo(new byte[]{-1}));
+			fail("negative delay should cause exception");
+		} catch (RemoteExecutionException e) {
+		}
+		assertEquals(1, pool.getIdleConnections());
+		pool.close();
+	}
+	
+	@Test
+	public void testIdleEviction() throws Exception {
+		final ClientConnectionPool<LVClientHelper> pool = ClientConnectionPool.forLVClientHelper("localhost", 12351,
+				1, 3);
+		pool.setIdleTimeout(200);
+		List<PooledConnection<LVClientHelper>> connections = new ArrayList<>();
+		for(int i = 0; i < 3; ++i)
+			connections.add(pool.borrow());
+		for(PooledConnection<LVClientHelper> connection : connections) {
+			assertArrayEquals(new byte[]{0, 3}, connection.get().sendRequest(new byte[]{0, 3}));
+			connection.close();
+		}
+		assertEquals(3, pool.getIdleConnections());
+		Thread.sleep(600);
+		assertEquals(1, pool.getOpenConnections());
+		assertEquals(1, pool.getIdleConnections());
+		pool.close();
+	}
+}
@@ -0,0 +1,56 @@
+package org.blitvin.nioserver;
+
+/**
+ * Measures heap retained by NioServer per idle connection: server context, client context,
+ * protocol state and entry of expiration manager. Socket and selection key, which are owned by
+ * JDK, are not included.
+ * Usage: java org.blitvin.nioserver.ConnectionFootprintBenchmark [connections]
+ */
+public class ConnectionFootprintBenchmark {
+
+	interface ProtocolFactory {
+		ServerSideProtocol newInstance();
+	}
+
+	static long usedMemory() {
+		Runtime runtime = Runtime.getRuntime();
+		for(int i = 0 ; i < 3; ++i)
+			System.gc();
+		return runtime.totalMemory() - runtime.freeMemory();
+	}
+
+	static long measure(int connections, ProtocolFactory factory) {
+		ServerContext<?>[] contexts = new ServerContext<?>[connections];
+		TimingWheelExpirationManager<Object> expirationMgr = new TimingWheelExpirationManager<>(
+				NioServerInitializer.DEFAULT_CLIENT_TIMEOUT, NioServerInitializer.DEFAULT_EXPIRATION_TICK);
+		long before = usedMemory();
+		for(int i = 0 ; i < connections; ++i) {
+			contexts[i] = new ServerContext<ClientContext>(factory.newInstance(), null, new ClientContext());
+			contexts[i].expirationManagerHint = expirationMgr.add(contexts[i]);
+		}
+		long retVal = (usedMemory() - before) / connections;
+		if (contexts[connections - 1] == null || expirationMgr.size() != connections) // keep reachable
+			throw new IllegalStateException();
+		return retVal;
+	}
+
+	public static void main(String[] args) {
+		int connections = args.length > 0 ? Integer.parseInt(args[0]) : 100000;
+		ProtocolFactory lv = new ProtocolFactory() {
+			@Override
+			public ServerSideProtocol newInstance() {
+				return new LVServerProtocol();
+			}
+		};
+		ProtocolFactory mux = new ProtocolFactory() {
+			@Override
+			public ServerSideProtocol newInstance() {
+				return new MuxServerProtocol();
+			}
+		};
+		measure(connections / 10, lv); // warmup
+		System.out.println("connections="+connections);
+		System.out.println("LV protocol:          "+ measure(connections, lv) + " bytes/connection");
+		System.out.println("multiplexed protocol: "+ measure(connections, mux) + " bytes/connection");
+	}
+}
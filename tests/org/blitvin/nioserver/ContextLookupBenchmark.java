@@ -0,0 +1,110 @@
+package org.blitvin.nioserver;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.HashMap;
+
+/**
+ * Microbenchmark of per request bookkeeping done by reactor thread: lookups of connection state
+ * in HashMaps keyed by channel and client context (as NioServer used to do) versus state 
+ * attached to selection key with back reference from client context.
+ * Usage: java org.blitvin.nioserver.ContextLookupBenchmark [connections] [requests]
+ */
+public class ContextLookupBenchmark {
+
+	private final SelectionKey[] keys;
+	private final SocketChannel[] clients;
+	private long blackhole = 0;
+	
+	ContextLookupBenchmark(int connections) throws IOException {
+		keys = new SelectionKey[connections];
+		clients = new SocketChannel[connections];
+		Selector selector = Selector.open();
+		ServerSocketChannel server = ServerSocketChannel.open();
+		server.socket().bind(new InetSocketAddress("localhost", 0));
+		for(int i = 0 ; i < connections; ++i) {
+			clients[i] = SocketChannel.open(server.socket().getLocalSocketAddress());
+			SocketChannel channel = server.accept();
+			channel.configureBlocking(false);
+			ServerContext<ClientContext> context = new ServerContext<ClientContext>(new LVServerProtocol(), 
+					channel, new ClientContext());
+			keys[i] = channel.register(selector, SelectionKey.OP_READ, context);
+		}
+		server.close();
+	}
+	
+	@SuppressWarnings("unchecked")
+	long runMaps(int requests) {
+		HashMap<SocketChannel,ServerContext<ClientContext>> channelContexts = new HashMap<>();
+		HashMap<SocketChannel,ServerContext<ClientContext>> outboundData = new HashMap<>();
+		HashMap<ClientContext,ServerContext<ClientContext>> workingContexts = new HashMap<>();
+		for(SelectionKey key: keys)
+			channelContexts.put((SocketChannel) key.channel(), (ServerContext<ClientContext>) key.attachment());
+		long start = System.nanoTime();
+		for(int i = 0 ; i < requests; ++i) {
+			SocketChannel channel = (SocketChannel) keys[i % keys.length].channel();
+			// read
+			ServerContext<ClientContext> context = channelContexts.get(channel);
+			workingContexts.put(context.getClientContext(), context);
+			// reply handed over by worker
+			ClientContext reply = context.getClientContext();
+			ServerContext<ClientContext> serverContext = workingContexts.get(reply);
+			outboundData.put(serverContext.channel, serverContext);
+			// write
+			ServerContext<ClientContext> toWrite = outboundData.get(channel);
+			outboundData.remove(channel);
+			workingContexts.remove(toWrite.getClientContext());
+			blackhole += toWrite.expirationManagerHint;
+		}
+		return System.nanoTime() - start;
+	}
+	
+	@SuppressWarnings("unchecked")
+	long runAttachments(int requests) {
+		int working = 0;
+		long start = System.nanoTime();
+		for(int i = 0 ; i < requests; ++i) {
+			SelectionKey key = keys[i % keys.length];
+			// read
+			ServerContext<ClientContext> context = (ServerContext<ClientContext>) key.attachment();
+			working++;
+			// reply handed over by worker
+			ClientContext reply = context.getClientContext();
+			ServerContext<ClientContext> serverContext = reply.serverContext;
+			// write
+			ServerContext<ClientContext> toWrite = (ServerContext<ClientContext>) key.attachment();
+			blackhole += serverContext.expirationManagerHint;
+			working--;
+			blackhole += toWrite.expirationManagerHint + working;
+		}
+		return System.nanoTime() - start;
+	}
+	
+	void close() throws IOException {
+		for(SelectionKey key: keys)
+			key.channel().close();
+		for(SocketChannel client : clients)
+			client.close();
+	}
+	
+	public static void main(String[] args) throws IOException {
+		int connections = args.length > 0 ? Integer.parseInt(args[0]) : 1000;
+		int requests = args.length > 1 ? Integer.parseInt(args[1]) : 10000000;
+		ContextLookupBenchmark benchmark = new ContextLookupBenchmark(connections);
+		for(int warmup = 0 ; warmup < 5; ++warmup) {
+			benchmark.runMaps(requests/10);
+			benchmark.runAttachments(requests/10);
+		}
+		long maps = benchmark.runMaps(requests);
+		long attachments = benchmark.runAttachments(requests);
+		System.out.println("connections="+connections+" requests="+requests);
+		System.out.println("HashMap lookups:     "+ (double)maps/requests + " ns/request");
+		System.out.println("key attachments:     "+ (double)attachments/requests + " ns/request");
+		System.out.println("(ignore) "+benchmark.blackhole);
+		benchmark.close();
+	}
+}
@@ -3,6 +3,7 @@ package org.blitvin.nioserver;
 import static org.junit.Assert.*;
 
 import java.io.IOException;
+import java.net.Socket;
 import java.net.SocketException;
 import java.net.UnknownHostException;
 
@@ -63,4 +64,18 @@ public class ExpirationConnectionsTest {
 		assertEquals(100, message.id);
 		assertEquals(2,message.count);
 	}
+
+	@Test
+	public void testExpirationWithoutAccept() throws IOException {
+		long expired = server.getStatistics().getExpiredConnections();
+		try (Socket socket = new Socket("localhost", 12345)) {
+			// no other connection is accepted meanwhile, reactor wakes up on its own to close this one
+			socket.setSoTimeout(5000);
+			long start = System.currentTimeMillis();
+			assertEquals(-1, socket.getInputStream().read());
+			long elapsed = System.currentTimeMillis() - start;
+			assertTrue("closed after " + elapsed, elapsed >= 1000 && elapsed < 2000);
+		}
+		assertTrue(server.getStatistics().getExpiredConnections() > expired);
+	}
 }
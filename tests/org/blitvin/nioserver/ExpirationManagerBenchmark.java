@@ -0,0 +1,106 @@
+package org.blitvin.nioserver;
+
+import java.util.ArrayList;
+import java.util.Collection;
+
+/**
+ * Benchmark of expiration managers with large number of idle connections: SimpleExpirationManager
+ * (generations of HashSets under monitor, advanced by ticker thread) versus 
+ * TimingWheelExpirationManager. Reports time per add, touch and remove, retained heap per item and
+ * how late after timeout idle items are reported as expired.
+ * Usage: java org.blitvin.nioserver.ExpirationManagerBenchmark [connections] [timeout] [tick]
+ */
+public class ExpirationManagerBenchmark {
+
+	interface Factory {
+		ExpirationManager<Object> newInstance();
+	}
+
+	static long usedMemory() {
+		Runtime runtime = Runtime.getRuntime();
+		for(int i = 0 ; i < 3; ++i)
+			System.gc();
+		return runtime.totalMemory() - runtime.freeMemory();
+	}
+
+	static void run(String name, Factory factory, Object[] items, int timeout) throws InterruptedException {
+		int hints[] = new int[items.length];
+		ExpirationManager<Object> mgr = factory.newInstance();
+		mgr.start();
+		long memory = usedMemory();
+		long start = System.nanoTime();
+		for(int i = 0 ; i < items.length; ++i)
+			hints[i] = mgr.add(items[i]);
+		long add = System.nanoTime() - start;
+		long retained = usedMemory() - memory;
+		start = System.nanoTime();
+		for(int round = 0 ; round < 10; ++round)
+			for(int i = 0 ; i < items.length; ++i)
+				hints[i] = mgr.touch(items[i], hints[i]);
+		long touch = System.nanoTime() - start;
+		start = System.nanoTime();
+		for(int i = 0 ; i < items.length; ++i)
+			mgr.remove(items[i], hints[i]);
+		long remove = System.nanoTime() - start;
+		mgr.stop();
+
+		// idle items, expiration manager polled as by selector loop
+		mgr = factory.newInstance();
+		mgr.start();
+		start = System.nanoTime();
+		for(int i = 0 ; i < items.length; ++i)
+			mgr.add(items[i]);
+		int expired = 0;
+		long firstExpired = 0;
+		long lastExpired = 0;
+		long polling = 0;
+		while(expired < items.length && System.nanoTime() - start < 4000000L * timeout) {
+			long pollStart = System.nanoTime();
+			Collection<Object> obs = mgr.getExpired();
+			polling += System.nanoTime() - pollStart;
+			if (!obs.isEmpty()) {
+				if (expired == 0)
+					firstExpired = System.nanoTime() - start;
+				expired += obs.size();
+				lastExpired = System.nanoTime() - start;
+			}
+			Thread.sleep(1);
+		}
+		mgr.stop();
+		System.out.println(name +": add "+ (double) add / items.length + " ns, touch " +
+				(double) touch / items.length / 10 + " ns, remove " + (double) remove / items.length + 
+				" ns, retained "+ retained / items.length + " bytes/item");
+		System.out.println(name +": "+ expired + " expired between " + firstExpired / 1000000 +  " and " + 
+				lastExpired / 1000000 + " msecs (timeout "+ timeout + "), polling took "+ polling / 1000000 + " msecs");
+	}
+
+	public static void main(String[] args) throws InterruptedException {
+		int connections = args.length > 0 ? Integer.parseInt(args[0]) : 100000;
+		final int timeout = args.length > 1 ? Integer.parseInt(args[1]) : 1000;
+		final int tick = args.length > 2 ? Integer.parseInt(args[2]) : 
+			NioServerInitializer.DEFAULT_EXPIRATION_TICK;
+		ArrayList<Object> list = new ArrayList<>();
+		for(int i = 0 ; i < connections; ++i)
+			list.add(new Object());
+		Object[] items = list.toArray();
+		Factory simple = new Factory() {
+			@Override
+			public ExpirationManager<Object> newInstance() {
+				return new SimpleExpirationManager<>(timeout);
+			}
+		};
+		Factory wheel = new Factory() {
+			@Override
+			public ExpirationManager<Object> newInstance() {
+				return new TimingWheelExpirationManager<>(timeout, tick);
+			}
+		};
+		System.out.println("connections="+connections+" timeout="+timeout+" tick="+tick);
+		for(int warmup = 0 ; warmup < 2; ++warmup) {
+			run("simple (warmup)", simple, items, timeout);
+			run("wheel (warmup)", wheel, items, timeout);
+		}
+		run("simple", simple, items, timeout);
+		run("wheel", wheel, items, timeout);
+	}
+}
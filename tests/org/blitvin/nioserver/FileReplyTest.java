@@ -0,0 +1,170 @@
+package org.blitvin.nioserver;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+public class FileReplyTest {
+	static final int FILE_LENGTH = 6 << 20;
+	static byte[] content;
+	static NioServerInitializer<TestClientContext, TestFileMP> initializer = null;
+	static NioServer<TestClientContext, TestFileMP> server = null;
+	static NioServer<TestClientContext, TestFileMP> muxServer = null;
+
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	@BeforeClass
+	public static void setup() throws IOException{
+		content = new byte[FILE_LENGTH];
+		new Random(1).nextBytes(content);
+		Path file = Files.createTempFile("nioserver", ".dat");
+		file.toFile().deleteOnExit();
+		Files.write(file, content);
+		TestFileMP.file = file;
+		initializer = new NioServerInitializer<>(12365, TestClientContext.class, TestFileMP.class, null);
+		server = new NioServer<>(initializer);
+		Thread serverThread = new Thread(server);
+		serverThread.setDaemon(true);
+		serverThread.start();
+		muxServer = new NioServer<>(new NioServerInitializer<>(12366, TestClientContext.class,
+				TestFileMP.class, (Class) MuxServerProtocol.class));
+		serverThread = new Thread(muxServer);
+		serverThread.setDaemon(true);
+		serverThread.start();
+	}
+
+	@AfterClass
+	public static void shutdown() {
+		if(server != null)
+			server.shutdown();
+		if(muxServer != null)
+			muxServer.shutdown();
+	}
+
+	private static byte[] expected(int position, int length) {
+		return Arrays.copyOfRange(content, position, position + length);
+	}
+
+	// channel is closed by reactor after the reply is written, i.e. shortly after client gets it
+	private static void assertChannelsClosed() throws InterruptedException {
+		FileChannel channel;
+		while((channel = TestFileMP.opened.peek()) != null) {
+			for(int i = 0; i < 100 && channel.isOpen(); ++i)
+				Thread.sleep(20);
+			assertFalse(channel.isOpen());
+			TestFileMP.opened.poll();
+		}
+	}
+
+	@Test
+	public void testRegionReply() throws Exception {
+		LVClientHelper helper = new LVClientHelper("localhost", 12365);
+		try {
+			assertArrayEquals(content, helper.sendRequest(TestFileMP.region(0, FILE_LENGTH)));
+			assertArrayEquals(expected(1000, 100), helper.sendRequest(TestFileMP.region(1000, 100)));
+			assertArrayEquals(new byte[]{1, 2}, helper.sendRequest(new byte[]{0, 1, 2}));
+			assertArrayEquals(new byte[0], helper.sendRequest(TestFileMP.region(5, 0)));
+		} finally {
+			helper.closeConnection();
+		}
+		assertChannelsClosed();
+	}
+
+	@Test
+	public void testRegionOfFailedRequestIsClosed() throws Exception {
+		LVClientHelper helper = new LVClientHelper("localhost", 12365);
+		try {
+			byte[] request = TestFileMP.region(0, 100);
+			request[0] = 2;
+			try {
+				helper.sendRequest(request);
+				fail("exception is expected");
+			} catch (RemoteExecutionException e) {
+			}
+			assertArrayEquals(expected(0, 100), helper.sendRequest(TestFileMP.region(0, 100)));
+		} finally {
+			helper.closeConnection();
+		}
+		assertChannelsClosed();
+	}
+
+	@Test
+	public void testPipelinedRegionsToSlowReader() throws Exception {
+		byte[][] requests = {TestFileMP.region(0, FILE_LENGTH), {0, 7}, TestFileMP.region(12345, 1 << 20)};
+		byte[][] replies = {content, {7}, expected(12345, 1 << 20)};
+		try (SocketChannel channel = SocketChannel.open()) {
+			// small receive buffer makes sure replies don't fit into socket buffers
+			channel.setOption(StandardSocketOptions.SO_RCVBUF, 64 * 1024);
+			channel.connect(new InetSocketAddress("localhost", 12365));
+			for(byte[] request: requests) {
+				ByteBuffer buffer = ByteBuffer.allocate(4 + request.length).putInt(request.length).put(request);
+				buffer.flip();
+				while(buffer.hasRemaining())
+					channel.write(buffer);
+			}
+			Thread.sleep(100); // socket buffers fill up, replies are completed on OP_WRITE
+			for(byte[] expected: replies) {
+				ByteBuffer header = ByteBuffer.allocate(4);
+				while(header.hasRemaining())
+					assertTrue(channel.read(header) > 0);
+				header.flip();
+				assertEquals(expected.length, header.getInt());
+				ByteBuffer reply = ByteBuffer.allocate(expected.length);
+				while(reply.hasRemaining())
+					assertTrue(channel.read(reply) > 0);
+				assertArrayEquals(expected, reply.array());
+			}
+		}
+		assertChannelsClosed();
+	}
+
+	@Test
+	public void testMultiplexedRegionReplies() throws Exception {
+		final ClientHelper helper = new ClientHelper("localhost", 12366, new MuxClientProtocol());
+		final AtomicInteger gotError = new AtomicInteger(0);
+		final CountDownLatch endLatch = new CountDownLatch(8);
+		try {
+			for(int i = 0 ; i < 8; ++i) {
+				final int position = i * 1000;
+				final int length = i % 2 == 0 ? (1 << 20) + i : 100 + i;
+				new Thread() {
+					@Override
+					public void run() {
+						try {
+							for(int j = 0; j < 5; ++j) {
+								if (!Arrays.equals(expected(position, length), 
+										helper.sendRequest(TestFileMP.region(position, length))))
+									gotError.incrementAndGet();
+								if (!Arrays.equals(new byte[]{(byte) j}, helper.sendRequest(new byte[]{0, (byte) j})))
+									gotError.incrementAndGet();
+							}
+						} catch (Exception e) {
+							e.printStackTrace();
+							gotError.incrementAndGet();
+						}
+						endLatch.countDown();
+					}
+				}.start();
+			}
+			endLatch.await();
+		} finally {
+			helper.closeConnection();
+		}
+		assertEquals(0, gotError.get());
+		assertChannelsClosed();
+	}
+}
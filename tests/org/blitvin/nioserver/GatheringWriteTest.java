@@ -0,0 +1,132 @@
+package org.blitvin.nioserver;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+public class GatheringWriteTest {
+	static final int LARGE_REPLY = 3 << 20;
+	static NioServerInitializer<TestClientContext, TestEchoMP> initializer = null;
+	static NioServer<TestClientContext, TestEchoMP> server = null;
+	static NioServer<TestClientContext, TestEchoMP> muxServer = null;
+
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	@BeforeClass
+	public static void setup() throws IOException{
+		initializer = new NioServerInitializer<>(12361, TestClientContext.class, TestEchoMP.class,null);
+		initializer.setGatheringThreshold(1024);
+		server = new NioServer<>(initializer);
+		Thread serverThread = new Thread(server);
+		serverThread.setDaemon(true);
+		serverThread.start();
+		NioServerInitializer<TestClientContext, TestEchoMP> muxInitializer =
+				new NioServerInitializer<>(12362, TestClientContext.class, TestEchoMP.class,
+						(Class) MuxServerProtocol.class);
+		muxInitializer.setGatheringThreshold(1024);
+		muxServer = new NioServer<>(muxInitializer);
+		serverThread = new Thread(muxServer);
+		serverThread.setDaemon(true);
+		serverThread.start();
+	}
+
+	@AfterClass
+	public static void shutdown() {
+		if(server != null)
+			server.shutdown();
+		if(muxServer != null)
+			muxServer.shutdown();
+	}
+
+	private static byte[] request(int len, long seed) {
+		byte[] retVal = new byte[len];
+		new Random(seed).nextBytes(retVal);
+		retVal[0] = 0; // no delay
+		return retVal;
+	}
+
+	@Test
+	public void testLargeReply() throws Exception {
+		long unpooled = initializer.getBufferPool().getUnpooled();
+		LVClientHelper helper = new LVClientHelper("localhost", 12361);
+		try {
+			byte[] large = request(LARGE_REPLY, 1);
+			byte[] small = request(100, 2);
+			assertArrayEquals(large, helper.sendRequest(large));
+			assertArrayEquals(small, helper.sendRequest(small));
+			assertArrayEquals(large, helper.sendRequest(large));
+		} finally {
+			helper.closeConnection();
+		}
+		// reply exceeding largest pooled buffer is not copied to heap buffer anymore
+		assertEquals(unpooled, initializer.getBufferPool().getUnpooled());
+	}
+
+	@Test
+	public void testPipelinedLargeRepliesToSlowReader() throws Exception {
+		byte[][] requests = {request(600000, 3), request(10, 4), request(300000, 5)};
+		try (SocketChannel channel = SocketChannel.open(new InetSocketAddress("localhost", 12361))) {
+			for(byte[] request: requests) {
+				ByteBuffer header = ByteBuffer.allocate(4).putInt(request.length);
+				header.flip();
+				ByteBuffer body = ByteBuffer.wrap(request);
+				while(header.hasRemaining() || body.hasRemaining())
+					channel.write(new ByteBuffer[]{header, body});
+			}
+			Thread.sleep(100); // socket buffers fill up, replies are completed on OP_WRITE
+			for(byte[] request: requests) {
+				ByteBuffer header = ByteBuffer.allocate(4);
+				while(header.hasRemaining())
+					assertTrue(channel.read(header) > 0);
+				header.flip();
+				assertEquals(request.length, header.getInt());
+				ByteBuffer reply = ByteBuffer.allocate(request.length);
+				while(reply.hasRemaining()) {
+					assertTrue(channel.read(reply) > 0);
+					Thread.sleep(1);
+				}
+				assertArrayEquals(request, reply.array());
+			}
+		}
+	}
+
+	@Test
+	public void testMultiplexedLargeReplies() throws Exception {
+		final ClientHelper helper = new ClientHelper("localhost", 12362, new MuxClientProtocol());
+		final AtomicInteger gotError = new AtomicInteger(0);
+		final CountDownLatch endLatch = new CountDownLatch(8);
+		try {
+			for(int i = 0 ; i < 8; ++i) {
+				final byte[] request = request(i % 2 == 0 ? 200000 + i : 100 + i, i);
+				new Thread() {
+					@Override
+					public void run() {
+						try {
+							for(int j = 0; j < 5; ++j)
+								if (!Arrays.equals(request, helper.sendRequest(request)))
+									gotError.incrementAndGet();
+						} catch (Exception e) {
+							e.printStackTrace();
+							gotError.incrementAndGet();
+						}
+						endLatch.countDown();
+					}
+				}.start();
+			}
+			endLatch.await();
+		} finally {
+			helper.closeConnection();
+		}
+		assertEquals(0, gotError.get());
+	}
+}
@@ -0,0 +1,80 @@
+package org.blitvin.nioserver;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+public class InlineExecutionTest {
+	static NioServer<TestClientContext, TestNonBlockingMP> server = null;
+	static Thread serverThread = null;
+	static NioServer<TestClientContext, TestNonBlockingMP> lvServer = null;
+	static Thread lvServerThread = null;
+	static final long INLINE_BUDGET = 3000; // microseconds
+	
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	@BeforeClass
+	public static void setup() throws IOException{
+			NioServerInitializer<TestClientContext, TestNonBlockingMP> initializer = 
+					new NioServerInitializer<>(12352, TestClientContext.class, TestNonBlockingMP.class, 
+							(Class) MuxServerProtocol.class);
+			assertTrue(initializer.isInlineExecution());
+			// roomy enough for cold calls on a busy box, still short of 5 msecs delayed requests
+			initializer.setInlineExecutionBudget(INLINE_BUDGET);
+			server = new NioServer<>(initializer);
+			serverThread = new Thread(server);
+			serverThread.setDaemon(true);
+			serverThread.start();
+			NioServerInitializer<TestClientContext, TestNonBlockingMP> lvInitializer = 
+					new NioServerInitializer<>(12353, TestClientContext.class, TestNonBlockingMP.class, null);
+			lvInitializer.setInlineExecutionBudget(INLINE_BUDGET);
+			lvServer = new NioServer<>(lvInitializer);
+			lvServerThread = new Thread(lvServer);
+			lvServerThread.setDaemon(true);
+			lvServerThread.start();
+	}
+
+	@AfterClass
+	public static void shutdown() {
+		if(server != null)
+			server.shutdown();
+		if(lvServer != null)
+			lvServer.shutdown();
+	}
+
+	@Test
+	public void testSequentialInlineExecution() throws Exception {
+		for(int c = 0; c < 10; ++c) {
+			ClientHelper helper = new ClientHelper("localhost", 12353);
+			for(int i = 0; i < 10; ++i) {
+				assertArrayEquals(new byte[]{0, (byte) c, (byte) i}, 
+						helper.sendRequest(new byte[]{0, (byte) c, (byte) i}));
+				assertSame(lvServerThread, TestNonBlockingMP.lastThread);
+			}
+			helper.closeConnection();
+		}
+	}
+
+	@Test
+	public void testInlineExecution() throws Exception {
+		ClientHelper helper = new ClientHelper("localhost", 12352, new MuxClientProtocol());
+		for(int i = 0; i < 100; ++i) {
+			assertArrayEquals(new byte[]{0, (byte) i}, helper.sendRequest(new byte[]{0, (byte) i}));
+			assertSame(serverThread, TestNonBlockingMP.lastThread);
+		}
+		try {
+			helper.sendRequest(new byte[]{-1});
+			fail("negative delay should cause exception");
+		} catch (RemoteExecutionException e) {
+		}
+		// few calls exceeding the budget move execution to thread pool
+		for(int i = 0; i < 3; ++i)
+			assertArrayEquals(new byte[]{5, (byte) i}, helper.sendRequest(new byte[]{5, (byte) i}));
+		assertArrayEquals(new byte[]{0, 2}, helper.sendRequest(new byte[]{0, 2}));
+		assertNotSame(serverThread, TestNonBlockingMP.lastThread);
+		helper.closeConnection();
+	}
+}
@@ -0,0 +1,35 @@
+package org.blitvin.nioserver;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+
+import org.junit.Test;
+
+public class LVClientHelperTest {
+
+	private static byte[] bytes(ByteBuffer buffer) {
+		byte[] retVal = new byte[buffer.remaining()];
+		buffer.get(retVal);
+		return retVal;
+	}
+
+	@Test
+	public void testExceptionReply() throws Exception {
+		ByteArrayOutputStream replies = new ByteArrayOutputStream();
+		replies.write(bytes(new LVServerProtocol().putExceptionReply(new IllegalArgumentException("wrong request"))));
+		replies.write(new byte[]{0, 0, 0, 2, 1, 2});
+		LVClientHelper helper = new LVClientHelper(new ByteArrayInputStream(replies.toByteArray()), 
+				new ByteArrayOutputStream());
+		try {
+			helper.sendRequest(new byte[]{3});
+			fail("exception reply should be thrown");
+		} catch (RemoteExecutionException e) {
+			assertTrue(e.getCause() instanceof IllegalArgumentException);
+		}
+		// exception is consumed, so the reply following it is read in sync
+		assertArrayEquals(new byte[]{1, 2}, helper.sendRequest(new byte[]{4}));
+	}
+}
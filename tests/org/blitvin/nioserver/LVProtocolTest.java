@@ -75,6 +75,23 @@ public class LVProtocolTest {
 		
 	}
 	
+	@Test
+	public void testBusyReply() throws ClassNotFoundException, IOException{
+		for(int i = 0; i < 2; ++i) {
+			client.addPart(server.putBusyReply());
+			assertTrue(client.hasCompleteMessage());
+			try {
+				client.getReply();
+				fail("busy reply should throw exception");
+			} catch (ServerBusyException e) {
+				assertNull(e.getCause());
+			} catch (RemoteExecutionException e) {
+				fail("busy reply should throw ServerBusyException");
+			}
+			client.inboundMessageHasBeenConsumed();
+		}
+	}
+	
 	@Test
 	public void testServiceMessage(){
 		ByteBuffer clientBuf = client.sendServiceMessage(ClientServerProtocol.CLOSE_NOTIFICATION);
@@ -87,6 +104,47 @@ public class LVProtocolTest {
 		sendMessageToServer();// to check service code is not stuck
 	}
 	
+	@Test
+	public void testGatheringHeader() throws RemoteExecutionException, ClassNotFoundException, IOException{
+		server.setGatheringThreshold(8);
+		assertNull(server.encodeHeader(new byte[7]));
+		assertNull(server.encodeHeader(null));
+		byte[] msg = {1, 2, 3, 4, 5, 6, 7, 8};
+		ByteBuffer header = server.encodeHeader(msg);
+		assertEquals(4, header.remaining());
+		ByteBuffer b = ByteBuffer.allocate(header.remaining() + msg.length);
+		b.put(header).put(msg).flip();
+		assertTrue(client.addPart(b));
+		assertArrayEquals(msg, client.getReply());
+	}
+	
+	@Test
+	public void testHeaderInMultipleTransmissions(){
+		ByteBuffer b = ByteBuffer.allocate(4 + 260 + 8);
+		b.putInt(260);
+		for(int i = 0; i < 260; ++i)
+			b.put((byte) i);
+		b.putInt(ClientServerProtocol.REQUEST_TIMEOUT_NOTIFICATION);
+		b.putInt(1000);
+		b.flip();
+		// every byte of headers comes in transmission of its own
+		for(int i = 0; i < 4; ++i)
+			assertFalse(server.addPart(ByteBuffer.wrap(new byte[]{b.get()})));
+		b.limit(4 + 260 + 3);
+		assertTrue(server.addPart(b));
+		byte[] msg = server.getRequest();
+		assertEquals(260, msg.length);
+		assertEquals((byte) 259, msg[259]);
+		server.inboundMessageHasBeenConsumed();
+		assertFalse(server.hasCompleteMessage());
+		b.limit(b.capacity());
+		assertTrue(server.addPart(b));
+		assertEquals(ClientServerProtocol.REQUEST_TIMEOUT_NOTIFICATION, server.getServiceMessage());
+		assertEquals(1000, ByteBuffer.wrap(server.getRequest()).getInt());
+		server.inboundMessageHasBeenConsumed();
+		assertFalse(server.hasCompleteMessage());
+	}
+	
 	@Test
 	public void testMultipleMessagesInSingleTransmission(){
 		ByteBuffer b = ByteBuffer.allocate(13);
@@ -159,4 +217,43 @@ public class LVProtocolTest {
 		server.inboundMessageHasBeenConsumed();
 	}
 
+	@Test
+	public void testZeroCopyDecoding(){
+		BufferPool pool = new BufferPool();
+		server.setBufferPool(pool);
+		server.setZeroCopy(true);
+		ByteBuffer b = pool.acquire(64);
+		byte[] t = {0,0,0,2,7,8,0,0,0,1,9,0,0,0,2,3};
+		b.put(t);
+		b.flip();
+		assertTrue(server.addPart(b));
+		assertTrue(server.retainedInput());
+		assertFalse(server.retainedInput());
+		ByteBuffer view = server.requestView;
+		assertTrue(view.isReadOnly());
+		assertEquals(2, view.remaining());
+		assertEquals(7, view.get(0));
+		assertEquals(8, view.get(1));
+		assertArrayEquals(new byte[]{7,8}, server.getRequest());
+		assertEquals(1, pool.getOutstanding());
+		server.inboundMessageHasBeenConsumed();
+		// next message is decoded from the same buffer
+		assertTrue(server.hasCompleteMessage());
+		assertEquals(9, server.requestView.get(0));
+		server.inboundMessageHasBeenConsumed();
+		// partial message is copied, since it spans reads, and the buffer is returned to the pool
+		assertFalse(server.hasCompleteMessage());
+		assertEquals(0, pool.getOutstanding());
+		ByteBuffer rest = ByteBuffer.allocate(1);
+		rest.put((byte)4);
+		rest.flip();
+		assertTrue(server.addPart(rest));
+		assertFalse(server.retainedInput());
+		assertNull(server.requestView);
+		assertArrayEquals(new byte[]{3,4}, server.getRequest());
+		server.inboundMessageHasBeenConsumed();
+		server.releaseBuffers();
+		assertEquals(0, pool.getOutstanding());
+	}
+
 }
@@ -0,0 +1,96 @@
+package org.blitvin.nioserver;
+import static org.junit.Assert.*;
+import static org.junit.Assume.assumeTrue;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+public class ListenerShardsTest {
+	static final int NUM_OF_RUNNERS = 64;
+	static final int PORT = 12373;
+	static NioServer<TestClientContext, TestBytesMP> server = null;
+	static Thread serverThread = null;
+	
+	static boolean reusePortSupported() throws IOException {
+		try (ServerSocketChannel channel = ServerSocketChannel.open()) {
+			return channel.supportedOptions().contains(StandardSocketOptions.SO_REUSEPORT);
+		}
+	}
+	
+	@BeforeClass
+	public static void setup() throws IOException{
+		if (!reusePortSupported())
+			return;
+		NioServerInitializer<TestClientContext, TestBytesMP> initializer = 
+				new NioServerInitializer<>(PORT, TestClientContext.class, TestBytesMP.class,null);
+		initializer.setListenerShards(4);
+		server= new NioServer<>(initializer);
+		serverThread = new Thread(server);
+		serverThread.setDaemon(true);
+		serverThread.start();
+	}
+	
+	@AfterClass
+	public static void shutdown() throws InterruptedException {
+		if(server != null) {
+			server.shutdown();
+			serverThread.join(10000); // port is released when server thread is done
+		}
+	}
+	private AtomicInteger gotError = new AtomicInteger(0);
+	private CountDownLatch startLatch = new CountDownLatch(NUM_OF_RUNNERS);
+	private CountDownLatch endLatch = new CountDownLatch(NUM_OF_RUNNERS);
+	
+	@Test
+	public void testConcurrent() throws Exception{
+		assumeTrue(server != null);
+		for(int i = 1 ; i <= NUM_OF_RUNNERS ; ++i) {
+			NewConcurrentConnectionTestRunner runner = new NewConcurrentConnectionTestRunner(i, startLatch, endLatch, gotError, PORT);
+			runner.start();
+		}
+		endLatch.await();
+		assertEquals(0, gotError.get());
+	}
+	
+	@Test
+	public void testFailedShardReleasesPort() throws Exception {
+		assumeTrue(reusePortSupported());
+		// second shard fails to start after the first one has bound the port
+		NioServerInitializer<TestClientContext, TestBytesMP> initializer = 
+				new NioServerInitializer<TestClientContext, TestBytesMP>(12367, TestClientContext.class, 
+						TestBytesMP.class,null) {
+			int reactors = 0;
+			@Override
+			RequestLimiter getRequestLimiter() {
+				if (++reactors == 2)
+					throw new IllegalStateException("shard fails");
+				return super.getRequestLimiter();
+			}
+		};
+		initializer.setListenerShards(2);
+		try {
+			new NioServer<>(initializer);
+			fail("server with failed shard should not be created");
+		} catch (IllegalStateException e) {
+		}
+		// listener without SO_REUSEPORT can't bind the port if shard is left open
+		try (ServerSocketChannel channel = ServerSocketChannel.open()) {
+			channel.bind(new InetSocketAddress(12367));
+		}
+		// nobody accepts connections on the port
+		try {
+			SocketChannel.open(new InetSocketAddress("localhost", 12367)).close();
+			fail("connection to the port should be refused");
+		} catch (IOException e) {
+		}
+	}
+}
@@ -0,0 +1,73 @@
+package org.blitvin.nioserver;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+public class LoadSheddingTest {
+	static NioServer<TestClientContext, TestEchoMP> server = null;
+	static ClientEventLoop loop = null;
+	
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	@BeforeClass
+	public static void setup() throws IOException{
+			NioServerInitializer<TestClientContext, TestEchoMP> initializer = new NioServerInitializer<>(12356, 
+					TestClientContext.class, TestEchoMP.class, (Class) MuxServerProtocol.class);
+			// single worker, so requests queue up when they come faster than processed
+			initializer.setPool(Executors.newFixedThreadPool(1));
+			initializer.setLoadSheddingTarget(2000);
+			initializer.setLoadSheddingInterval(100);
+			server = new NioServer<>(initializer);
+			Thread serverThread = new Thread(server);
+			serverThread.setDaemon(true);
+			serverThread.start();
+			loop = ClientEventLoop.open();
+	}
+
+	@AfterClass
+	public static void shutdown() {
+		if (loop != null)
+			loop.shutdown();
+		if(server != null)
+			server.shutdown();
+	}
+
+	@Test
+	public void testOverloadedServerRejectsRequests() throws Exception {
+		AsyncClientHelper helper = new AsyncClientHelper("localhost", 12356, loop, new MuxClientProtocol());
+		ClientHelper blockingHelper = new ClientHelper("localhost", 12356, new MuxClientProtocol());
+		// worker is busy with first request, second one waits for 120 ms, third one for 240 ms
+		CompletableFuture<byte[]> first = helper.sendRequestAsync(new byte[]{120, 1});
+		CompletableFuture<byte[]> second = helper.sendRequestAsync(new byte[]{120, 2});
+		CompletableFuture<byte[]> third = helper.sendRequestAsync(new byte[]{0, 3});
+		assertArrayEquals(new byte[]{120, 1}, first.get());
+		assertArrayEquals(new byte[]{120, 2}, second.get());
+		assertArrayEquals(new byte[]{0, 3}, third.get());
+		// queueing delay stayed above target for the whole interval, so requests are rejected
+		try {
+			blockingHelper.sendRequest(new byte[]{0, 4});
+			fail("overloaded server should reject the request");
+		} catch (ServerBusyException e) {
+		}
+		try {
+			helper.sendRequestAsync(new byte[]{0, 5}).get();
+			fail("overloaded server should reject the request");
+		} catch (ExecutionException e) {
+			assertTrue(e.getCause() instanceof ServerBusyException);
+		}
+		assertEquals(2, server.getStatistics().getRejectedRequests());
+		// rejecting ends after the interval, requests are executed again
+		Thread.sleep(200);
+		assertArrayEquals(new byte[]{0, 6}, blockingHelper.sendRequest(new byte[]{0, 6}));
+		assertArrayEquals(new byte[]{0, 7}, helper.sendRequestAsync(new byte[]{0, 7}).get());
+		blockingHelper.closeConnection();
+		helper.closeConnection();
+	}
+}
@@ -0,0 +1,72 @@
+package org.blitvin.nioserver;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+public class MpscArrayQueueTest {
+	static final int NUM_OF_PRODUCERS = 8;
+	static final int NUM_OF_ELEMENTS = 100000;
+
+	@Test
+	public void testSingleThread() {
+		MpscArrayQueue<Integer> queue = new MpscArrayQueue<>(3); // rounded up to 4
+		assertTrue(queue.isEmpty());
+		assertNull(queue.poll());
+		for(int i = 0; i < 6; ++i)
+			queue.add(i);
+		assertFalse(queue.isEmpty());
+		// elements not fitting into the ring come from overflow queue
+		for(int i = 0; i < 6; ++i)
+			assertEquals(Integer.valueOf(i), queue.poll());
+		assertTrue(queue.isEmpty());
+		// wrap around
+		for(int i = 0; i < 10; ++i) {
+			queue.add(i);
+			queue.add(-i);
+			assertEquals(Integer.valueOf(i), queue.poll());
+			assertEquals(Integer.valueOf(-i), queue.poll());
+		}
+		assertNull(queue.poll());
+	}
+	
+	private void runProducers(int capacity) throws InterruptedException {
+		final MpscArrayQueue<long[]> queue = new MpscArrayQueue<>(capacity);
+		Thread[] producers = new Thread[NUM_OF_PRODUCERS];
+		for(int p = 0; p < NUM_OF_PRODUCERS; ++p) {
+			final int id = p;
+			producers[p] = new Thread() {
+				@Override
+				public void run() {
+					for(int i = 0; i < NUM_OF_ELEMENTS; ++i)
+						queue.add(new long[]{id, i});
+				}
+			};
+			producers[p].start();
+		}
+		boolean[][] seen = new boolean[NUM_OF_PRODUCERS][NUM_OF_ELEMENTS];
+		for(int received = 0; received < NUM_OF_PRODUCERS * NUM_OF_ELEMENTS; ) {
+			long[] e = queue.poll();
+			if (e == null) {
+				Thread.yield();
+				continue;
+			}
+			assertFalse(seen[(int) e[0]][(int) e[1]]);
+			seen[(int) e[0]][(int) e[1]] = true;
+			++received;
+		}
+		for(Thread producer : producers)
+			producer.join();
+		assertTrue(queue.isEmpty());
+	}
+	
+	@Test
+	public void testConcurrentProducers() throws InterruptedException {
+		runProducers(1024);
+	}
+
+	@Test
+	public void testConcurrentProducersWithOverflow() throws InterruptedException {
+		runProducers(4);
+	}
+}
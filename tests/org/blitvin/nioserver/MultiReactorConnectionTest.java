@@ -0,0 +1,87 @@
+package org.blitvin.nioserver;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+public class MultiReactorConnectionTest {
+	static final int NUM_OF_RUNNERS = 64;
+	static final int PORT = 12371;
+	static NioServer<TestClientContext, TestBytesMP> server = null;
+	static Thread serverThread = null;
+	@BeforeClass
+	public static void setup() throws IOException{
+			NioServerInitializer<TestClientContext, TestBytesMP> initializer = 
+					new NioServerInitializer<>(PORT, TestClientContext.class, TestBytesMP.class,null);
+			initializer.setReactorCount(4);
+			initializer.setReactorBalancing(NioServerInitializer.BALANCING_LEAST_CONNECTIONS);
+			server= new NioServer<>(initializer);
+			serverThread = new Thread(server);
+			serverThread.setDaemon(true);
+			serverThread.start();
+	}
+	
+	@AfterClass
+	public static void shutdown() throws InterruptedException {
+		if(server != null) {
+			server.shutdown();
+			serverThread.join(10000); // port is released when server thread is done
+		}
+	}
+	private AtomicInteger gotError = new AtomicInteger(0);
+	private CountDownLatch startLatch = new CountDownLatch(NUM_OF_RUNNERS);
+	private CountDownLatch endLatch = new CountDownLatch(NUM_OF_RUNNERS);
+	
+	@Test
+	public void testConcurrent() throws IOException, Exception{
+		for(int i = 1 ; i <= NUM_OF_RUNNERS ; ++i) {
+			NewConcurrentConnectionTestRunner runner = new NewConcurrentConnectionTestRunner(i, startLatch, endLatch, gotError, PORT);
+			runner.start();
+		}
+		try {
+			endLatch.await();
+		} catch (InterruptedException e) {
+			fail("Got interrupted exception");
+		}
+		assertEquals(0, gotError.get());
+	}
+	
+	@Test
+	public void testSharedExpirationManagerIsRejected() throws IOException {
+		NioServerInitializer<TestClientContext, TestBytesMP> initializer = 
+				new NioServerInitializer<>(12372, TestClientContext.class, TestBytesMP.class,null);
+		initializer.setExpirationManager(new NoExpirationManager<SocketChannel>());
+		initializer.setReactorCount(2);
+		try {
+			new NioServer<>(initializer);
+			fail("expiration manager set by setExpirationManager can't serve two reactors");
+		} catch (IllegalStateException e) {
+		}
+		initializer.setReactorCount(0);
+		initializer.setListenerShards(2);
+		try {
+			new NioServer<>(initializer);
+			fail("expiration manager set by setExpirationManager can't serve two shards");
+		} catch (IllegalStateException e) {
+		}
+		// single reactor is fine
+		initializer.setListenerShards(0);
+		NioServer<TestClientContext, TestBytesMP> single = new NioServer<>(initializer);
+		single.shutdown();
+		Thread thread = new Thread(single);
+		thread.start();
+		try {
+			thread.join(5000);
+		} catch (InterruptedException e) {
+		}
+		assertTrue(!thread.isAlive());
+	}
+}
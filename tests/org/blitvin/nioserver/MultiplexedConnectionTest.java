@@ -0,0 +1,102 @@
+package org.blitvin.nioserver;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+public class MultiplexedConnectionTest {
+	static final int NUM_OF_CALLERS = 200;
+	static NioServer<TestClientContext, TestEchoMP> server = null;
+	static ClientHelper helper = null;
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	@BeforeClass
+	public static void setup() throws IOException{
+			NioServerInitializer<TestClientContext, TestEchoMP> initializer =
+					new NioServerInitializer<>(12348, TestClientContext.class, TestEchoMP.class,
+							(Class) MuxServerProtocol.class);
+			initializer.setZeroCopyDecoding(true);
+			initializer.setMaxPipelinedRequests(256);
+			server= new NioServer<>(initializer);
+			Thread serverThread = new Thread(server);
+			serverThread.setDaemon(true);
+			serverThread.start();
+			helper = new ClientHelper("localhost", 12348, new MuxClientProtocol());
+	}
+
+	@AfterClass
+	public static void shutdown() {
+		if (helper != null)
+			helper.closeConnection();
+		if(server != null)
+		server.shutdown();
+	}
+
+	@Test
+	public void testConcurrentCalls() throws InterruptedException {
+		final AtomicInteger gotError = new AtomicInteger(0);
+		final CountDownLatch endLatch = new CountDownLatch(NUM_OF_CALLERS);
+		NioServerStatistics statistics = server.getStatistics();
+		long handOffs = statistics.getWakeups() + statistics.getSuppressedWakeups();
+		for(int i = 0 ; i < NUM_OF_CALLERS; ++i) {
+			final byte[] request = {(byte) (i % 5), (byte) i, (byte) (i >> 8)};
+			new Thread() {
+				@Override
+				public void run() {
+					try {
+						for(int j = 0; j < 10; ++j) 
+							if (!java.util.Arrays.equals(request, helper.sendRequest(request)))
+								gotError.incrementAndGet();
+					} catch (Exception e) {
+						e.printStackTrace();
+						gotError.incrementAndGet();
+					}
+					endLatch.countDown();
+				}
+			}.start();
+		}
+		endLatch.await();
+		assertEquals(0, gotError.get());
+		// each reply handed over by worker either wakes the selector up or finds it awake
+		assertTrue(statistics.getWakeups() + statistics.getSuppressedWakeups() - handOffs >= NUM_OF_CALLERS * 10);
+	}
+
+	@Test
+	public void testOutOfOrderReplies() throws Exception {
+		final CountDownLatch slowDone = new CountDownLatch(1);
+		Thread slow = new Thread() {
+			@Override
+			public void run() {
+				try {
+					helper.sendRequest(new byte[]{100});
+				} catch (Exception e) {
+					e.printStackTrace();
+				}
+				slowDone.countDown();
+			}
+		};
+		slow.start();
+		Thread.sleep(20);
+		assertArrayEquals(new byte[]{0, 1}, helper.sendRequest(new byte[]{0, 1}));
+		// fast reply is not blocked behind the slow one
+		assertEquals(1, slowDone.getCount());
+		slowDone.await();
+	}
+
+	@Test
+	public void testRemoteException() throws Exception {
+		try {
+			helper.sendRequest(new byte[]{-1});
+			fail("negative delay should cause exception");
+		}
+		catch(RemoteExecutionException e) {
+			assertTrue(e.getCause() instanceof IllegalArgumentException);
+		}
+		assertArrayEquals(new byte[]{0, 2}, helper.sendRequest(new byte[]{0, 2}));
+	}
+}
@@ -0,0 +1,108 @@
+package org.blitvin.nioserver;
+import static org.junit.Assert.assertNotNull;
+
+import java.io.IOException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+class NewConcurrentConnectionTestRunner extends Thread{
+	static final int MESSAGES = 50;
+
+	private CountDownLatch startLatch;
+	private CountDownLatch endLatch;
+	private int id;
+	private final AtomicInteger flagError;
+	private final int port;
+	ClientHelper helper;
+	public NewConcurrentConnectionTestRunner(int id, CountDownLatch startLatch, CountDownLatch endLatch,
+			AtomicInteger flagError) throws IOException, Exception{
+		this(id, startLatch, endLatch, flagError, 12345);
+	}
+	
+	public NewConcurrentConnectionTestRunner(int id, CountDownLatch startLatch, CountDownLatch endLatch,
+			AtomicInteger flagError, int port) throws IOException, Exception{
+		this.id = id;
+		this.startLatch = startLatch;
+		this.endLatch = endLatch;
+		this.flagError = flagError;
+		this.port = port;
+		this.helper = new ClientHelper("localhost", port);
+		this.setName("Runner"+ id);
+	}
+	
+	@Override
+	public void run(){
+		startLatch.countDown();
+		System.out.println("count down on startlatch:"+id );
+		try {
+			startLatch.await();
+		} catch (InterruptedException e) {
+			e.printStackTrace();
+		}
+		byte[] message = new byte[2];
+		message[0] = (byte)id;
+		for(int i = 1 ; i <= MESSAGES; ++i){
+			try {
+				message[1] = (byte)i;
+				message = helper.sendRequest(message);
+			} catch (Exception e) {
+				System.err.println("sender "+ id + " : got exception "+ e.toString() + " on iteration " + i);
+				flagError.incrementAndGet();
+				//e.printStackTrace();
+				break;
+			}
+			if (message[1] != i+1) {
+				System.err.print("sender "+ id + ": expecting count "+ (i+1)+ " and got"+ message[1]);
+				flagError.incrementAndGet();
+				break;
+			}
+			if (message[0] != id) {
+				System.err.print("sender "+ id + ": got message with id "+ message[0]);
+				flagError.incrementAndGet();
+				break;
+			}
+		}
+		
+		helper.closeConnection();
+		
+		
+		try {
+			Thread.sleep(20*id); // this prevents syn flood 
+			helper = new ClientHelper("localhost", port);
+			assertNotNull(helper);
+			
+			
+			for(int i = 1 ; i <= MESSAGES; ++i){
+				try {
+					message[1] = (byte) i;
+					message = helper.sendRequest(message);
+				} catch (Exception e) {
+					// TODO Auto-generated catch block
+					System.err.println("sender "+ id + " : got exception "+ e.toString() + " on run 2 iteration " + i);
+					e.getCause().printStackTrace();
+					flagError.incrementAndGet();
+					//e.printStackTrace();
+					break;
+				}
+				if (message[1] != i+1) {
+					System.err.print("sender "+ id + ": run 2 -expecting count "+ (i+1)+ " and got "+ message[1]);
+					flagError.incrementAndGet();
+					break;
+				}
+				if (message[0] != id) {
+					System.err.print("sender "+ id + ": run 2 - got message with id "+ message[0]);
+					flagError.incrementAndGet();
+					break;
+				}
+			}
+			helper.closeConnection();
+		} catch (IOException e) {
+			System.err.println("Got IOException during second run : sender" + id + " exception " + e.toString());
+			e.printStackTrace();
+		} catch (InterruptedException e1) {
+			// TODO Auto-generated catch block
+			e1.printStackTrace();
+		}
+		endLatch.countDown();
+	}
+}
@@ -0,0 +1,83 @@
+package org.blitvin.nioserver;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+public class PipeliningTest {
+	static final int NUM_OF_REQUESTS = 100;
+	static NioServer<TestClientContext, TestBytesMP> server = null;
+	@BeforeClass
+	public static void setup() throws IOException{
+			NioServerInitializer<TestClientContext, TestBytesMP> initializer =
+					new NioServerInitializer<>(12347, TestClientContext.class, TestBytesMP.class,null);
+			initializer.setMaxPipelinedRequests(4);
+			initializer.setZeroCopyDecoding(true);
+			server= new NioServer<>(initializer);
+			Thread serverThread = new Thread(server);
+			serverThread.setDaemon(true);
+			serverThread.start();
+	}
+
+	@AfterClass
+	public static void shutdown() {
+		if(server != null)
+		server.shutdown();
+	}
+
+	private ByteBuffer encodeRequests(byte id) {
+		ByteBuffer requests = ByteBuffer.allocate(NUM_OF_REQUESTS * 6 + 4);
+		for(int i = 1; i <= NUM_OF_REQUESTS; ++i) {
+			requests.putInt(2);
+			requests.put(id);
+			requests.put((byte) i);
+		}
+		requests.putInt(ClientServerProtocol.CLOSE_NOTIFICATION);
+		requests.flip();
+		return requests;
+	}
+
+	private void checkReplies(SocketChannel channel, byte id) throws IOException {
+		ByteBuffer replies = ByteBuffer.allocate(NUM_OF_REQUESTS * 6);
+		while(replies.hasRemaining() && channel.read(replies) >= 0)
+			;
+		replies.flip();
+		for(int i = 1; i <= NUM_OF_REQUESTS; ++i) {
+			assertEquals(2, replies.getInt());
+			assertEquals(id, replies.get());
+			assertEquals((byte) (i+1), replies.get());
+		}
+		// connection is closed by server after replies to all the requests are sent
+		assertEquals(-1, channel.read(ByteBuffer.allocate(1)));
+	}
+
+	@Test
+	public void testPipelinedRequests() throws IOException {
+		try (SocketChannel channel = SocketChannel.open(new InetSocketAddress("localhost", 12347))) {
+			channel.write(encodeRequests((byte) 1));
+			checkReplies(channel, (byte) 1);
+		}
+	}
+
+	@Test
+	public void testPipelinedRequestsInChunks() throws IOException, InterruptedException {
+		try (SocketChannel channel = SocketChannel.open(new InetSocketAddress("localhost", 12347))) {
+			ByteBuffer requests = encodeRequests((byte) 2);
+			while(requests.hasRemaining()) {
+				ByteBuffer chunk = requests.duplicate();
+				chunk.limit(Math.min(requests.limit(), requests.position() + 7));
+				requests.position(chunk.limit());
+				channel.write(chunk);
+				Thread.sleep(1);
+			}
+			checkReplies(channel, (byte) 2);
+		}
+	}
+}
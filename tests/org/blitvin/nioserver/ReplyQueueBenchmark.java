@@ -0,0 +1,104 @@
+package org.blitvin.nioserver;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+
+/**
+ * Benchmark of hand-off of replies from worker threads to reactor: LinkedBlockingQueue (as
+ * NioServer used to use), ConcurrentLinkedQueue and MpscArrayQueue. Producers add elements as
+ * fast as they can, single consumer drains the queue. Besides time per element, number of garbage
+ * collections during the run is reported, as linked queues allocate node per element.
+ * Usage: java org.blitvin.nioserver.ReplyQueueBenchmark [elementsPerProducer] [producers...]
+ */
+public class ReplyQueueBenchmark {
+	
+	interface Queue {
+		void add(Object o);
+		Object poll();
+	}
+	
+	static long gcCount() {
+		long retVal = 0;
+		for(GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans())
+			retVal += gc.getCollectionCount();
+		return retVal;
+	}
+	
+	static long run(final Queue queue, int producers, final int elements) throws InterruptedException {
+		final CountDownLatch start = new CountDownLatch(1);
+		final Object element = new Object();
+		Thread[] threads = new Thread[producers];
+		for(int i = 0; i < producers; ++i) {
+			threads[i] = new Thread() {
+				@Override
+				public void run() {
+					try {
+						start.await();
+					} catch (InterruptedException e) {
+						return;
+					}
+					for(int j = 0; j < elements; ++j)
+						queue.add(element);
+				}
+			};
+			threads[i].start();
+		}
+		long total = (long) producers * elements;
+		long begin = System.nanoTime();
+		start.countDown();
+		for(long received = 0; received < total; )
+			if (queue.poll() != null)
+				++received;
+		long retVal = System.nanoTime() - begin;
+		for(Thread t: threads)
+			t.join();
+		return retVal;
+	}
+	
+	static Queue[] queues() {
+		final LinkedBlockingQueue<Object> lbq = new LinkedBlockingQueue<>();
+		final ConcurrentLinkedQueue<Object> clq = new ConcurrentLinkedQueue<>();
+		final MpscArrayQueue<Object> mpsc = new MpscArrayQueue<>(4096);
+		return new Queue[] {
+			new Queue() {
+				public void add(Object o) { lbq.add(o); }
+				public Object poll() { return lbq.poll(); }
+			},
+			new Queue() {
+				public void add(Object o) { clq.add(o); }
+				public Object poll() { return clq.poll(); }
+			},
+			new Queue() {
+				public void add(Object o) { mpsc.add(o); }
+				public Object poll() { return mpsc.poll(); }
+			}
+		};
+	}
+	
+	public static void main(String[] args) throws InterruptedException {
+		int elements = args.length > 0 ? Integer.parseInt(args[0]) : 200000;
+		int[] producerCounts = {8, 32, 64};
+		if (args.length > 1) {
+			producerCounts = new int[args.length - 1];
+			for(int i = 1; i < args.length; ++i)
+				producerCounts[i - 1] = Integer.parseInt(args[i]);
+		}
+		String[] names = {"LinkedBlockingQueue:   ", "ConcurrentLinkedQueue: ", "MpscArrayQueue:        "};
+		for(int producers : producerCounts) {
+			for(int warmup = 0; warmup < 3; ++warmup)
+				for(Queue queue : queues())
+					run(queue, producers, elements / 10);
+			System.out.println("producers="+producers+" elements per producer="+elements);
+			Queue[] queues = queues();
+			for(int i = 0; i < queues.length; ++i) {
+				long gcs = gcCount();
+				long time = run(queues[i], producers, elements);
+				System.out.println(names[i] + (double) time / ((long) producers * elements) + " ns/element, " + 
+						(gcCount() - gcs) + " GCs");
+			}
+		}
+	}
+}
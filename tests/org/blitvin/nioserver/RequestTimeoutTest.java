@@ -0,0 +1,105 @@
+package org.blitvin.nioserver;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+public class RequestTimeoutTest {
+	static NioServer<TestClientContext, TestEchoMP> server = null;
+	static NioServer<TestClientContext, TestEchoMP> muxServer = null;
+	static ClientEventLoop loop = null;
+
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	@BeforeClass
+	public static void setup() throws IOException{
+			NioServerInitializer<TestClientContext, TestEchoMP> initializer = new NioServerInitializer<>(12357, 
+					TestClientContext.class, TestEchoMP.class, null);
+			initializer.setRequestTimeout(50);
+			server = new NioServer<>(initializer);
+			Thread serverThread = new Thread(server);
+			serverThread.setDaemon(true);
+			serverThread.start();
+			initializer = new NioServerInitializer<>(12358, TestClientContext.class, TestEchoMP.class, 
+					(Class) MuxServerProtocol.class);
+			// single worker, it is available for next request only if timed out one is interrupted
+			initializer.setPool(Executors.newFixedThreadPool(1));
+			initializer.setRequestTimeout(30);
+			muxServer = new NioServer<>(initializer);
+			serverThread = new Thread(muxServer);
+			serverThread.setDaemon(true);
+			serverThread.start();
+			loop = ClientEventLoop.open();
+	}
+
+	@AfterClass
+	public static void shutdown() {
+		if (loop != null)
+			loop.shutdown();
+		if(server != null)
+			server.shutdown();
+		if(muxServer != null)
+			muxServer.shutdown();
+	}
+
+	@Test
+	public void testTimedOutRequest() throws Exception {
+		LVClientHelper helper = new LVClientHelper("localhost", 12357);
+		assertArrayEquals(new byte[]{0, 1}, helper.sendRequest(new byte[]{0, 1}));
+		long timedOut = server.getStatistics().getTimedOutRequests();
+		try {
+			helper.sendRequest(new byte[]{120, 2});
+			fail("request is expected to time out");
+		} catch (RequestTimeoutException e) {
+		}
+		assertEquals(timedOut + 1, server.getStatistics().getTimedOutRequests());
+		// server closes the connection after timeout reply
+		try {
+			helper.sendRequest(new byte[]{0, 3});
+			fail("connection is expected to be closed");
+		} catch (IOException e) {
+		}
+		helper = new LVClientHelper("localhost", 12357);
+		assertArrayEquals(new byte[]{0, 4}, helper.sendRequest(new byte[]{0, 4}));
+		helper.closeConnection();
+	}
+
+	@Test
+	public void testClientSuppliedTimeout() throws Exception {
+		LVClientHelper helper = new LVClientHelper("localhost", 12357);
+		helper.setRequestTimeout(1000);
+		assertArrayEquals(new byte[]{120, 1}, helper.sendRequest(new byte[]{120, 1}));
+		helper.setRequestTimeout(0); // back to server default
+		try {
+			helper.sendRequest(new byte[]{120, 2});
+			fail("request is expected to time out");
+		} catch (RequestTimeoutException e) {
+		}
+	}
+
+	@Test
+	public void testTimedOutCall() throws Exception {
+		AsyncClientHelper helper = new AsyncClientHelper("localhost", 12358, loop, new MuxClientProtocol());
+		long start = System.currentTimeMillis();
+		CompletableFuture<byte[]> first = helper.sendRequestAsync(new byte[]{127, 1});
+		try {
+			first.get();
+			fail("call is expected to time out");
+		} catch (ExecutionException e) {
+			assertTrue(e.getCause() instanceof RequestTimeoutException);
+		}
+		// worker sleeping in the timed out call is interrupted, connection goes on
+		assertArrayEquals(new byte[]{0, 2}, helper.sendRequestAsync(new byte[]{0, 2}).get());
+		long elapsed = System.currentTimeMillis() - start;
+		assertTrue("elapsed " + elapsed, elapsed < 127);
+		assertArrayEquals(new byte[]{0, 3}, helper.sendRequestAsync(new byte[]{0, 3}).get());
+		assertEquals(1, muxServer.getStatistics().getTimedOutRequests());
+		helper.closeConnection();
+	}
+}
@@ -0,0 +1,19 @@
+package org.blitvin.nioserver;
+
+/**
+ * stateless message processor for concurrent requests, first byte of request is delay in 
+ * milliseconds before the request is echoed back, negative delay causes exception
+ */
+public class TestEchoMP implements MessageProcessor<TestClientContext> {
+
+	@Override
+	public void processData(TestClientContext clientContext) throws Exception {
+		byte[] msg = clientContext.getRequest();
+		if (msg[0] < 0)
+			throw new IllegalArgumentException("negative delay " + msg[0]);
+		if (msg[0] > 0)
+			Thread.sleep(msg[0]);
+		clientContext.setReply(msg);
+	}
+
+}
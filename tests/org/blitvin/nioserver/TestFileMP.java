@@ -0,0 +1,38 @@
+package org.blitvin.nioserver;
+
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * message processor replying with regions of a file. First byte of request is mode: 0 echoes
+ * rest of the request, 1 replies with region of the file given by position (long) and length (int),
+ * 2 sets region reply and fails afterwards. Channels opened for replies are kept for inspection
+ */
+public class TestFileMP implements MessageProcessor<TestClientContext> {
+	static volatile Path file = null;
+	static final Queue<FileChannel> opened = new ConcurrentLinkedQueue<>();
+
+	@Override
+	public void processData(TestClientContext clientContext) throws Exception {
+		byte[] request = clientContext.getRequest();
+		if (request[0] == 0) {
+			clientContext.setReply(Arrays.copyOfRange(request, 1, request.length));
+			return;
+		}
+		ByteBuffer msg = ByteBuffer.wrap(request, 1, request.length - 1);
+		FileChannel channel = FileChannel.open(file, StandardOpenOption.READ);
+		opened.add(channel);
+		clientContext.setReply(channel, msg.getLong(), msg.getInt());
+		if (request[0] == 2)
+			throw new IllegalStateException("region reply is dropped");
+	}
+
+	static byte[] region(long position, int length) {
+		return ByteBuffer.allocate(13).put((byte) 1).putLong(position).putInt(length).array();
+	}
+}
@@ -0,0 +1,14 @@
+package org.blitvin.nioserver;
+
+/**
+ * echo message processor marked as non blocking, remembers thread executing the last request
+ */
+public class TestNonBlockingMP extends TestEchoMP implements NonBlocking {
+	static volatile Thread lastThread = null;
+	
+	@Override
+	public void processData(TestClientContext clientContext) throws Exception {
+		lastThread = Thread.currentThread();
+		super.processData(clientContext);
+	}
+}
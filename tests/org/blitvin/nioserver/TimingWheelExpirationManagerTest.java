@@ -0,0 +1,138 @@
+package org.blitvin.nioserver;
+
+import static org.junit.Assert.*;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashSet;
+
+import org.junit.Test;
+
+public class TimingWheelExpirationManagerTest {
+
+	private void waitMsecs(int delay){
+		try {
+			Thread.sleep(delay);
+		} catch (InterruptedException e) {
+		}
+	}
+
+	@Test
+	public void testExpiration() {
+		TimingWheelExpirationManager<Integer> mgr = new TimingWheelExpirationManager<>(300, 20);
+		mgr.start();
+		mgr.add(1);
+		int h2 = mgr.add(2);
+		assertTrue(mgr.getExpired().isEmpty());
+		waitMsecs(200);
+		assertTrue(mgr.getExpired().isEmpty());
+		h2 = mgr.touch(2, h2);
+		waitMsecs(200);
+		Collection<Integer> expired = mgr.getExpired();
+		assertEquals(1, expired.size());
+		assertTrue(expired.contains(1));
+		assertEquals(1, mgr.size());
+		waitMsecs(200);
+		expired = mgr.getExpired();
+		assertEquals(1, expired.size());
+		assertTrue(expired.contains(2));
+		assertEquals(0, mgr.size());
+		// expired item is no longer monitored
+		assertFalse(mgr.remove(2, h2));
+		mgr.stop();
+	}
+
+	@Test
+	public void testRemove() {
+		TimingWheelExpirationManager<Integer> mgr = new TimingWheelExpirationManager<>(100, 10);
+		int h1 = mgr.add(1);
+		int h2 = mgr.add(2);
+		int h3 = mgr.add(3);
+		assertTrue(mgr.remove(2, h2));
+		assertFalse(mgr.remove(2, h2));
+		assertFalse(mgr.remove(3, h1)); // hint of other item
+		// slot of removed item is reused, stale hint doesn't match new item
+		int h4 = mgr.add(4);
+		assertEquals(h2, h4);
+		assertFalse(mgr.remove(2, h4));
+		assertTrue(mgr.remove(3, h3));
+		waitMsecs(200);
+		Collection<Integer> expired = mgr.getExpired();
+		assertEquals(2, expired.size());
+		assertTrue(expired.contains(1));
+		assertTrue(expired.contains(4));
+	}
+
+	@Test
+	public void testRemoveTouchedItem() {
+		TimingWheelExpirationManager<Integer> mgr = new TimingWheelExpirationManager<>(100, 10);
+		int h1 = mgr.add(1);
+		waitMsecs(15);
+		mgr.getExpired();
+		mgr.add(2);
+		waitMsecs(15);
+		mgr.getExpired();
+		mgr.add(3);
+		// 1 is head of its bucket, touch moves its deadline to the tick of 3, but not the item
+		h1 = mgr.touch(1, h1);
+		assertTrue(mgr.remove(1, h1));
+		// 4 follows 5 in the bucket they are added to
+		int h4 = mgr.add(4);
+		mgr.add(5);
+		waitMsecs(15);
+		mgr.getExpired();
+		h4 = mgr.touch(4, h4);
+		assertTrue(mgr.remove(4, h4));
+		assertEquals(3, mgr.size());
+		HashSet<Integer> expired = new HashSet<>();
+		for(int i = 0; i < 50 && mgr.size() > 0; ++i) {
+			waitMsecs(10);
+			expired.addAll(mgr.getExpired());
+		}
+		assertEquals(new HashSet<>(Arrays.asList(2, 3, 5)), expired);
+		assertEquals(0, mgr.size());
+	}
+
+	@Test
+	public void testTouchWithStaleHint() {
+		TimingWheelExpirationManager<Integer> mgr = new TimingWheelExpirationManager<>(100, 10);
+		int h1 = mgr.add(1);
+		waitMsecs(150);
+		assertTrue(mgr.getExpired().contains(1));
+		// touch of item that is not monitored starts monitoring it again
+		h1 = mgr.touch(1, h1);
+		assertEquals(1, mgr.size());
+		assertTrue(mgr.remove(1, h1));
+	}
+
+	@Test
+	public void testManyItems() {
+		final int items = 10000;
+		TimingWheelExpirationManager<Integer> mgr = new TimingWheelExpirationManager<>(100, 10);
+		int hints[] = new int[items];
+		for(int i = 0 ; i < items; ++i)
+			hints[i] = mgr.add(i);
+		for(int i = 0 ; i < items; i += 2)
+			assertTrue(mgr.remove(i, hints[i]));
+		assertEquals(items/2, mgr.size());
+		waitMsecs(150);
+		HashSet<Integer> expired = new HashSet<>(mgr.getExpired());
+		assertEquals(items/2, expired.size());
+		for(int i = 1 ; i < items; i += 2)
+			assertTrue(expired.contains(i));
+	}
+
+	@Test
+	public void testNextExpirationDelay() {
+		TimingWheelExpirationManager<Integer> mgr = new TimingWheelExpirationManager<>(100, 10);
+		assertEquals(0, mgr.getNextExpirationDelay());
+		int h1 = mgr.add(1);
+		long delay = mgr.getNextExpirationDelay();
+		assertTrue("delay " + delay, delay > 0 && delay <= 120);
+		waitMsecs((int) delay);
+		while(mgr.getExpired().isEmpty())
+			waitMsecs(1);
+		assertEquals(0, mgr.getNextExpirationDelay());
+		assertFalse(mgr.remove(1, h1));
+	}
+}
@@ -0,0 +1,127 @@
+package org.blitvin.nioserver;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+public class WriteBatchingTest {
+	static final int NUM_OF_REQUESTS = 100;
+	static NioServerInitializer<TestClientContext, TestNonBlockingMP> initializer = null;
+	static NioServer<TestClientContext, TestNonBlockingMP> server = null;
+	static NioServer<TestClientContext, TestNonBlockingMP> muxServer = null;
+
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	@BeforeClass
+	public static void setup() throws IOException{
+		initializer = new NioServerInitializer<>(12363, TestClientContext.class, TestNonBlockingMP.class, null);
+		server = new NioServer<>(initializer);
+		Thread serverThread = new Thread(server);
+		serverThread.setDaemon(true);
+		serverThread.start();
+		muxServer = new NioServer<>(new NioServerInitializer<>(12364, TestClientContext.class,
+				TestNonBlockingMP.class, (Class) MuxServerProtocol.class));
+		serverThread = new Thread(muxServer);
+		serverThread.setDaemon(true);
+		serverThread.start();
+	}
+
+	@AfterClass
+	public static void shutdown() {
+		if(server != null)
+			server.shutdown();
+		if(muxServer != null)
+			muxServer.shutdown();
+	}
+
+	private static ByteBuffer read(SocketChannel channel, int len) throws IOException {
+		ByteBuffer retVal = ByteBuffer.allocate(len);
+		while(retVal.hasRemaining())
+			assertTrue(channel.read(retVal) > 0);
+		retVal.flip();
+		return retVal;
+	}
+
+	@Test
+	public void testPipelinedRepliesAreCoalesced() throws IOException, InterruptedException {
+		NioServerStatistics statistics = server.getStatistics();
+		long writes = statistics.getReplyWrites();
+		long replies = statistics.getRepliesWritten();
+		try (SocketChannel channel = SocketChannel.open(new InetSocketAddress("localhost", 12363))) {
+			ByteBuffer requests = ByteBuffer.allocate(NUM_OF_REQUESTS * 6);
+			for(int i = 0; i < NUM_OF_REQUESTS; ++i)
+				requests.putInt(2).put((byte) 0).put((byte) i);
+			requests.flip();
+			channel.write(requests);
+			ByteBuffer reply = read(channel, NUM_OF_REQUESTS * 6);
+			for(int i = 0; i < NUM_OF_REQUESTS; ++i) {
+				assertEquals(2, reply.getInt());
+				assertEquals(0, reply.get());
+				assertEquals((byte) i, reply.get());
+			}
+		}
+		// counters are updated after the write returns
+		for(int i = 0; i < 50 && statistics.getRepliesWritten() - replies < NUM_OF_REQUESTS; ++i)
+			Thread.sleep(20);
+		assertEquals(NUM_OF_REQUESTS, statistics.getRepliesWritten() - replies);
+		assertTrue(statistics.getReplyWrites() - writes < NUM_OF_REQUESTS / 2);
+	}
+
+	@Test
+	public void testMultiplexedRepliesAreCoalesced() throws IOException {
+		NioServerStatistics statistics = muxServer.getStatistics();
+		long writes = statistics.getReplyWrites();
+		try (SocketChannel channel = SocketChannel.open(new InetSocketAddress("localhost", 12364))) {
+			ByteBuffer requests = ByteBuffer.allocate(NUM_OF_REQUESTS * 10);
+			for(int i = 0; i < NUM_OF_REQUESTS; ++i)
+				requests.putInt(6).putInt(i).put((byte) 0).put((byte) i);
+			requests.flip();
+			channel.write(requests);
+			boolean[] answered = new boolean[NUM_OF_REQUESTS];
+			ByteBuffer reply = read(channel, NUM_OF_REQUESTS * 10);
+			for(int i = 0; i < NUM_OF_REQUESTS; ++i) {
+				assertEquals(6, reply.getInt());
+				int id = reply.getInt();
+				assertFalse(answered[id]);
+				answered[id] = true;
+				assertEquals(0, reply.get());
+				assertEquals((byte) id, reply.get());
+			}
+		}
+		assertTrue(statistics.getReplyWrites() - writes < NUM_OF_REQUESTS / 2);
+	}
+
+	@Test
+	public void testPeerClosesBeforeRepliesAreWritten() throws Exception {
+		BufferPool pool = initializer.getBufferPool();
+		long outstanding = pool.getOutstanding();
+		try (SocketChannel channel = SocketChannel.open()) {
+			// small receive buffer makes sure large reply doesn't fit into socket buffers
+			channel.setOption(StandardSocketOptions.SO_RCVBUF, 64 * 1024);
+			channel.connect(new InetSocketAddress("localhost", 12363));
+			int large = 8 << 20;
+			ByteBuffer requests = ByteBuffer.allocate(10 * 6 + 4 + large);
+			for(int i = 0; i < 10; ++i)
+				requests.putInt(2).put((byte) 0).put((byte) i);
+			requests.putInt(large);
+			requests.position(requests.limit());
+			requests.flip();
+			while(requests.hasRemaining())
+				channel.write(requests);
+			read(channel, 10 * 6 + 4); // large reply is being written
+			// server gets end of stream while reply waits for OP_WRITE, 
+			// the reply is dropped along with the connection
+			channel.shutdownOutput();
+			for(int i = 0; i < 100 && pool.getOutstanding() != outstanding; ++i)
+				Thread.sleep(20);
+			assertEquals(outstanding, pool.getOutstanding());
+		}
+	}
+}
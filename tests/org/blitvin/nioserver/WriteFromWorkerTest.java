@@ -0,0 +1,120 @@
+package org.blitvin.nioserver;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+public class WriteFromWorkerTest {
+	static final int LARGE_REPLY = 4 << 20;
+	// reply encoded into single buffer, and reply written as header and body
+	static final int[] PORTS = {12369, 12370};
+	static List<NioServerInitializer<TestClientContext, TestEchoMP>> initializers = new ArrayList<>();
+	static List<NioServer<TestClientContext, TestEchoMP>> servers = new ArrayList<>();
+
+	@BeforeClass
+	public static void setup() throws IOException{
+		for(int i = 0; i < PORTS.length; ++i) {
+			NioServerInitializer<TestClientContext, TestEchoMP> initializer = 
+					new NioServerInitializer<>(PORTS[i], TestClientContext.class, TestEchoMP.class, null);
+			initializer.setWriteFromWorker(true);
+			initializer.setGatheringThreshold(i == 0 ? Integer.MAX_VALUE : 1024);
+			initializers.add(initializer);
+			NioServer<TestClientContext, TestEchoMP> server = new NioServer<>(initializer);
+			servers.add(server);
+			Thread serverThread = new Thread(server);
+			serverThread.setDaemon(true);
+			serverThread.start();
+		}
+	}
+
+	@AfterClass
+	public static void shutdown() {
+		for(NioServer<TestClientContext, TestEchoMP> server: servers)
+			server.shutdown();
+	}
+
+	private static byte[] request(int len, long seed) {
+		byte[] retVal = new byte[len];
+		new Random(seed).nextBytes(retVal);
+		retVal[0] = 0; // no delay
+		return retVal;
+	}
+
+	private static void write(SocketChannel channel, byte[] request) throws IOException {
+		ByteBuffer buffer = ByteBuffer.allocate(4 + request.length).putInt(request.length).put(request);
+		buffer.flip();
+		while(buffer.hasRemaining())
+			channel.write(buffer);
+	}
+
+	@Test
+	public void testReplyLargerThanSocketBuffers() throws Exception {
+		for(int port: PORTS) {
+			byte[] large = request(LARGE_REPLY, port);
+			byte[] small = request(10, port + 1);
+			try (SocketChannel channel = SocketChannel.open()) {
+				channel.setOption(StandardSocketOptions.SO_RCVBUF, 64 * 1024);
+				channel.connect(new InetSocketAddress("localhost", port));
+				write(channel, large);
+				write(channel, small);
+				// worker writes what fits into socket buffers, reactor completes the reply
+				Thread.sleep(100);
+				for(byte[] expected: new byte[][]{large, small}) {
+					ByteBuffer reply = ByteBuffer.allocate(4 + expected.length);
+					while(reply.hasRemaining())
+						assertTrue(channel.read(reply) > 0);
+					reply.flip();
+					assertEquals(expected.length, reply.getInt());
+					byte[] data = new byte[expected.length];
+					reply.get(data);
+					assertArrayEquals(expected, data);
+				}
+			}
+		}
+	}
+
+	@Test
+	public void testClientClosedDuringRequest() throws Exception {
+		for(int i = 0; i < PORTS.length; ++i) {
+			BufferPool pool = initializers.get(i).getBufferPool();
+			long outstanding = pool.getOutstanding();
+			byte[] slow = request(LARGE_REPLY, i);
+			slow[0] = 50; // client is gone before the worker writes the reply
+			try (SocketChannel channel = SocketChannel.open(new InetSocketAddress("localhost", PORTS[i]))) {
+				write(channel, slow);
+			}
+			try (SocketChannel channel = SocketChannel.open()) {
+				channel.setOption(StandardSocketOptions.SO_RCVBUF, 64 * 1024);
+				channel.connect(new InetSocketAddress("localhost", PORTS[i]));
+				write(channel, request(LARGE_REPLY, i + 1));
+				// client is gone while the reply is partially written
+				ByteBuffer part = ByteBuffer.allocate(1024);
+				while(part.hasRemaining())
+					assertTrue(channel.read(part) > 0);
+			}
+			Thread.sleep(100);
+			// reactor goes on serving connections
+			LVClientHelper helper = new LVClientHelper("localhost", PORTS[i]);
+			try {
+				byte[] small = request(100, i + 2);
+				assertArrayEquals(small, helper.sendRequest(small));
+			} finally {
+				helper.closeConnection();
+			}
+			for(int j = 0; j < 100 && pool.getOutstanding() != outstanding; ++j)
+				Thread.sleep(20);
+			assertEquals(outstanding, pool.getOutstanding());
+		}
+	}
+}